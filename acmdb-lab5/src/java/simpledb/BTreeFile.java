@@ -3,6 +3,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import simpledb.Predicate.Op;
 
@@ -12,6 +14,12 @@ import simpledb.Predicate.Op;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Leaf pages are locked until the end of the transaction, but the root pointer and the
+ * internal pages are not locked on the way down to a leaf: a descent reads them as they
+ * are and checks afterwards that no change to the structure of the tree overlapped it,
+ * see {@link #findLeafPage(TransactionId, HashMap, Permissions, Field)}. Writers still
+ * lock the internal pages they change.
  *
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -25,6 +33,17 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final PageLsns lsns;
+	private final PageChecksums sums;
+	private final PageIO io;
+
+	/** Number of optimistic descents tried before the path to a leaf is locked. */
+	static final int OPTIMISTIC_DESCENTS = 3;
+
+	/** structure changes (splits, merges, redistributions) going on */
+	private final AtomicInteger structureChanges = new AtomicInteger(0);
+	/** number of structure changes that have ended */
+	private final AtomicLong structureVersion = new AtomicLong(0);
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +54,27 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, PageIO.defaultKind());
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, accessed with
+	 * the given kind of page I/O.
+	 *
+	 * @param ioKind - the kind of page I/O, see {@link PageIO#open(File, String)}
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, String ioKind) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.lsns = new PageLsns(f);
+		this.sums = new PageChecksums(f);
+		try {
+			this.io = PageIO.open(f, ioKind);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -77,15 +113,13 @@ public class BTreeFile implements DbFile {
 	 * @param pid - the id of the page to read from disk
 	 * @return the page constructed from the contents on disk
 	 */
-	public Page readPage(PageId pid) {
+	public Page readPage(PageId pid) throws DbException {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = io.read(0, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -93,18 +127,15 @@ public class BTreeFile implements DbFile {
 					throw new IllegalArgumentException("Unable to read "
 							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
 				}
+				sums.verify(f, id.pageNumber(), pageBuf);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
+				p.setLSN(lsns.get(id.pageNumber()));
 				return p;
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				int retval = io.read(pageOffset(id.pageNumber()), pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -112,33 +143,40 @@ public class BTreeFile implements DbFile {
 					throw new IllegalArgumentException("Unable to read "
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
+				sums.verify(f, id.pageNumber(), pageBuf);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
 					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+					p.setLSN(lsns.get(id.pageNumber()));
 					return p;
 				}
 				else if(id.pgcateg() == BTreePageId.LEAF) {
 					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+					p.setLSN(lsns.get(id.pageNumber()));
 					return p;
 				}
 				else { // id.pgcateg() == BTreePageId.HEADER
 					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
+					p.setLSN(lsns.get(id.pageNumber()));
 					return p;
 				}
 			}
+		} catch (ChecksumException e) {
+			throw new DbException(e.getMessage(), e);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * @return the offset in the file of the page with the given number;
+	 *   page 0 is the root pointer page
+	 */
+	private static long pageOffset(int pageNumber) {
+		return pageNumber == 0 ? 0 :
+				BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should
 	 * be called from the BufferPool when pages are flushed to disk
@@ -149,24 +187,66 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+		io.write(pageOffset(id.pageNumber()), data);
+		sums.set(id.pageNumber(), data, 0, data.length);
+		lsns.set(id.pageNumber(), page.getLSN());
+	}
+
+	/**
+	 * Write a run of pages with consecutive page numbers to disk in one
+	 * call. The root pointer page has its own size and is written on its own.
+	 *
+	 * @param pages - the pages to write to disk
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		int first = 0;
+		if(((BTreePageId) pages.get(0).getId()).pgcateg() == BTreePageId.ROOT_PTR) {
+			writePage(pages.get(0));
+			first = 1;
 		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		if(first == pages.size())
+			return;
+		int pageSize = BufferPool.getPageSize();
+		byte[] data = new byte[(pages.size() - first) * pageSize];
+		for(int i = first; i < pages.size(); i++)
+			System.arraycopy(pages.get(i).getPageData(), 0, data, (i - first) * pageSize, pageSize);
+		io.write(pageOffset(pages.get(first).getId().pageNumber()), data);
+		for(int i = first; i < pages.size(); i++) {
+			sums.set(pages.get(i).getId().pageNumber(), data, (i - first) * pageSize, pageSize);
+			lsns.set(pages.get(i).getId().pageNumber(), pages.get(i).getLSN());
 		}
 	}
 
+	// see DbFile.java for javadocs
+	public long getPageLSN(PageId id) throws IOException {
+		return lsns.get(id.pageNumber());
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		try {
+			return (int) ((io.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Check every page of this file on disk, including the root pointer
+	 * page, against the checksum it was written with, reading the pages in
+	 * parallel and around the buffer pool.
+	 *
+	 * @return the numbers of the pages that are damaged
+	 */
+	public List<Integer> scrub() throws IOException {
+		return sums.scrub(numPages() + 1, pgno -> {
+			byte[] data = new byte[pgno == 0 ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize()];
+			io.read(pageOffset(pgno), data);
+			return data;
+		});
 	}
 
 	/**
@@ -198,33 +278,114 @@ public class BTreeFile implements DbFile {
 		// some code goes here
 		if (pid.pgcateg() == BTreePageId.LEAF) return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
 		BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-		Iterator<BTreeEntry> it = p.iterator();
-		BTreeEntry e = null;
-		while (it.hasNext()) {
-			e = it.next();
-			if (f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
-				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+		BTreePageId child = p.findChild(f);
+		if (child == null)
+			throw new DbException("internal page " + pid.pageNumber() + " has no entries");
+		return findLeafPage(tid, dirtypages, child, perm, f);
+	}
+
+	/**
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f, starting from the root pointer. Only the leaf
+	 * is locked, with permission perm; the root pointer and the internal pages are read
+	 * without locking them, so the descent does not wait for writers that changed them and
+	 * does not keep writers from changing them later in the transaction.
+	 *
+	 * A descent that overlapped a change to the structure of the tree, or the abort of a
+	 * transaction, which rolls back the pages it changed, may have read a page halfway
+	 * through a change and taken a wrong turn. This is checked once the leaf is locked,
+	 * and the descent is tried again, releasing the lock it took on a leaf it may not
+	 * need. After OPTIMISTIC_DESCENTS tries the path is locked
+	 * with READ_ONLY permission, as {@link #findLeafPage(TransactionId, HashMap,
+	 * BTreePageId, Permissions, Field)} does, so a descent that keeps overlapping structure
+	 * changes waits for them and takes part in deadlock detection.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @return the left-most leaf page possibly containing the key field f, or null if the
+	 * tree has no root page yet
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+			Field f)
+					throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		for (int i = 0; i < OPTIMISTIC_DESCENTS; i++) {
+			if (i > 0) Thread.yield();
+			long aborts = bp.getAbortCount();
+			long version = structureVersion.get();
+			if (structureChanges.get() > 0) continue;
+
+			BTreeLeafPage leaf = null;
+			// the leaf, if this try locked a page the transaction had no lock on
+			BTreePageId locked = null;
+			boolean found = false;
+			try {
+				BTreePageId rootId = ((BTreeRootPtrPage) bp.getPageUnlocked(
+						BTreeRootPtrPage.getId(tableid))).getRootId();
+				BTreePageId pid = rootId;
+				while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL)
+					pid = ((BTreeInternalPage) bp.getPageUnlocked(pid)).findChild(f);
+				if (pid != null) {
+					if (!dirtypages.containsKey(pid) && !bp.holdsLock(tid, pid)) locked = pid;
+					leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+				}
+				found = rootId == null || pid != null;
+			} catch (RuntimeException e) {
+				// a page read while it was being changed, or one that was freed meanwhile
+			}
+			// in this order: a change that ends after structureChanges is read has bumped
+			// structureVersion by the time it is read
+			if (found && structureChanges.get() == 0 && structureVersion.get() == version
+					&& bp.getAbortCount() == aborts)
+				return leaf;
+			// the leaf may not be the one the search needed, so its lock is not kept
+			if (locked != null) {
+				bp.releasePage(tid, locked);
+				dirtypages.remove(locked);
 			}
 		}
-		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
+
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		return rootId == null ? null : findLeafPage(tid, dirtypages, rootId, perm, f);
 	}
 
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * @see #findLeafPage(TransactionId, HashMap, Permissions, Field)
 	 *
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the left-most leaf page possibly containing the key field f, or null if the
+	 * tree has no root page yet
 	 *
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-			Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+		return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f);
+	}
+
+	/**
+	 * Marks the start of a change to the structure of the tree: anything that changes the
+	 * internal pages or the root pointer. Optimistic descents that overlap it are tried
+	 * again. Every call must be matched by a call to {@link #endStructureChange()}.
+	 */
+	private void beginStructureChange() {
+		structureChanges.incrementAndGet();
+	}
+
+	/**
+	 * Marks the end of a change to the structure of the tree.
+	 * @see #beginStructureChange()
+	 */
+	private void endStructureChange() {
+		structureVersion.incrementAndGet();
+		structureChanges.decrementAndGet();
 	}
 
 	/**
@@ -489,22 +650,35 @@ public class BTreeFile implements DbFile {
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		createIfEmpty();
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		// find and lock the left-most leaf page corresponding to the key field
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField));
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+		if(leafPage == null) { // the root has just been created, so set the root pointer to point to it
+			beginStructureChange();
+			try {
+				BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+						BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				// unless another transaction did so first
+				if(rootPtr.getRootId() == null) {
+					rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+				}
+				leafPage = findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_WRITE,
+						t.getField(keyField));
+			} finally {
+				endStructureChange();
+			}
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// split the leaf page if there are no more slots available
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			beginStructureChange();
+			try {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			} finally {
+				endStructureChange();
+			}
 		}
 
 		// insert the tuple into the leaf page
@@ -958,7 +1132,12 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
 		if(page.getNumEmptySlots() > maxEmptySlots) {
-			handleMinOccupancyPage(tid, dirtypages, page);
+			beginStructureChange();
+			try {
+				handleMinOccupancyPage(tid, dirtypages, page);
+			} finally {
+				endStructureChange();
+			}
 		}
 
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
@@ -978,21 +1157,27 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+		createIfEmpty();
+
+		// get a read lock on the root pointer page
+		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Create the root pointer page and root page if the file is empty.
+	 */
+	private void createIfEmpty() throws IOException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(io.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				io.write(0, emptyRootPtrData);
+				io.write(emptyRootPtrData.length, emptyLeafData);
+				sums.set(0, emptyRootPtrData, 0, emptyRootPtrData.length);
+				sums.set(1, emptyLeafData, 0, emptyLeafData.length);
 			}
 		}
-
-		// get a read lock on the root pointer page
-		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
 	}
 
 	/**
@@ -1077,16 +1262,17 @@ public class BTreeFile implements DbFile {
 		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
-		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
-
-		// make sure the page is not in the buffer pool	or in the local cache
+		// make sure the page is not in the buffer pool	or in the local cache,
+		// and that no pending write-back of the old page lands after ours
 		Database.getBufferPool().discardPage(newPageId);
 		dirtypages.remove(newPageId);
 
+		// write empty page to disk, with the LSN of a page never logged
+		byte[] emptyData = BTreePage.createEmptyPageData();
+		io.write(pageOffset(emptyPageNo), emptyData);
+		sums.set(emptyPageNo, emptyData, 0, emptyData.length);
+		lsns.set(emptyPageNo, 0);
+
 		return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
 	}
 
@@ -1211,6 +1397,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	boolean pinned = false;
+	ScanRing ring = null;
+	ReadAhead readAhead = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1229,11 +1418,17 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+		if (curp == null) return; // the tree is empty
+		// keep the current leaf pinned while we iterate over it
+		curp = (BTreeLeafPage) Database.getBufferPool().pinPage(tid, curp.getId(), Permissions.READ_ONLY);
+		pinned = true;
 		it = curp.iterator();
+		// leaf pages after the first one go through a scan ring if the tree is large
+		ring = Database.getBufferPool().getScanRing(f.numPages());
+		// leaves are read ahead by following their right sibling pointers
+		readAhead = new ReadAhead(ring, (id, page) -> ((BTreeLeafPage) page).getRightSiblingId());
+		readAhead.moved(curp);
 	}
 
 	/**
@@ -1249,12 +1444,24 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
+			unpin();
 			if(nextp == null) {
 				curp = null;
 			}
+			else if (ring == null) {
+				curp = (BTreeLeafPage) Database.getBufferPool().pinPage(tid,
+						nextp, Permissions.READ_ONLY);
+				pinned = true;
+				readAhead.moved(curp);
+				it = curp.iterator();
+				if (!it.hasNext())
+					it = null;
+			}
 			else {
+				// leaves in the ring are private to this iterator and are not pinned
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
+				readAhead.moved(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1279,8 +1486,17 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpin();
 		it = null;
 		curp = null;
+		if (readAhead != null) readAhead.close();
+		readAhead = null;
+		ring = null;
+	}
+
+	private void unpin() {
+		if (pinned) Database.getBufferPool().unpinPage(tid, curp.getId());
+		pinned = false;
 	}
 }
 
@@ -1292,6 +1508,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	boolean pinned = false;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1314,17 +1531,25 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+		}
+		if (curp == null) return; // the tree is empty
+		// keep the current leaf pinned while we iterate over it
+		curp = (BTreeLeafPage) Database.getBufferPool().pinPage(tid, curp.getId(), Permissions.READ_ONLY);
+		pinned = true;
+		// no tuple before the first with a key of at least the field matches
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+			it = curp.iterator(ipred.getField());
+		}
+		else {
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
@@ -1362,8 +1587,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				BTreeLeafPage next = (BTreeLeafPage) Database.getBufferPool().pinPage(tid,
 						nextp, Permissions.READ_ONLY);
+				unpin();
+				curp = next;
+				pinned = true;
 				it = curp.iterator();
 			}
 		}
@@ -1384,6 +1612,12 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpin();
 		it = null;
 	}
+
+	private void unpin() {
+		if (pinned) Database.getBufferPool().unpinPage(tid, curp.getId());
+		pinned = false;
+	}
 }
@@ -66,6 +66,7 @@ public class BTreeFileEncoder {
 		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
 		// add the heap file to B+ tree file
+		Utility.deleteSidecars(bFile);
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
 
 		try {
@@ -216,7 +217,33 @@ public class BTreeFileEncoder {
 		Collections.sort(tuples, new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
+		Utility.deleteSidecars(bFile);
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		bulkLoad(bf, tuples, npagebytes);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Write the pages of a B+ tree holding the given tuples to an empty
+	 * BTreeFile, which must be in the catalog. The pages are written to
+	 * the file directly, not through the buffer pool.
+	 * 
+	 * @param bf - the BTreeFile, whose file is empty
+	 * @param tuples - the tuples, sorted on the key field of bf
+	 * @param npagebytes - number of bytes per page
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	public static void bulkLoad(BTreeFile bf, ArrayList<Tuple> tuples, int npagebytes)
+			throws IOException, DbException {
+		int numFields = bf.getTupleDesc().numFields();
+		Type[] typeAr = new Type[numFields];
+		for (int i = 0; i < numFields; i++) {
+			typeAr[i] = bf.getTupleDesc().getFieldType(i);
+		}
+		int keyField = bf.keyField();
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -330,9 +357,6 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
-
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
 	}
 
 	/**
@@ -25,6 +25,8 @@ public class BTreeHeaderPage implements Page {
 
 	byte[] oldData;
 	private final Byte oldDataLock=new Byte((byte)0);
+	private volatile long lsn = 0;
+	private long oldLsn = 0;
 
 	/**
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
@@ -93,11 +95,15 @@ public class BTreeHeaderPage implements Page {
 	public BTreeHeaderPage getBeforeImage(){
 		try {
 			byte[] oldDataRef = null;
+			long oldLsnRef;
 			synchronized(oldDataLock)
 			{
 				oldDataRef = oldData;
+				oldLsnRef = oldLsn;
 			}
-			return new BTreeHeaderPage(pid,oldDataRef);
+			BTreeHeaderPage p = new BTreeHeaderPage(pid,oldDataRef);
+			p.setLSN(oldLsnRef);
+			return p;
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -110,6 +116,7 @@ public class BTreeHeaderPage implements Page {
 		synchronized(oldDataLock)
 		{
 			oldData = getPageData().clone();
+			oldLsn = lsn;
 		}
 	}
 
@@ -264,6 +271,14 @@ public class BTreeHeaderPage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
@@ -141,11 +141,15 @@ public class BTreeInternalPage extends BTreePage {
 	public BTreeInternalPage getBeforeImage(){
 		try {
 			byte[] oldDataRef = null;
+			long oldLsnRef;
 			synchronized(oldDataLock)
 			{
 				oldDataRef = oldData;
+				oldLsnRef = oldLsn;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			BTreeInternalPage p = new BTreeInternalPage(pid,oldDataRef,keyField);
+			p.setLSN(oldLsnRef);
+			return p;
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -158,6 +162,7 @@ public class BTreeInternalPage extends BTreePage {
 		synchronized(oldDataLock)
 		{
 			oldData = getPageData().clone();
+			oldLsn = lsn;
 		}
 	}
 
@@ -601,6 +606,51 @@ public class BTreeInternalPage extends BTreePage {
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
+	/**
+	 * @return the first used slot from i up to end, or end if there is none
+	 */
+	private int nextUsedSlot(int i, int end) {
+		while (i < end && !isSlotUsed(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Find the child a search for a key descends to, by binary search over
+	 * the slots of this page, without creating entries. The entries are in
+	 * key order in the used slots from 1 on, with empty slots between them
+	 * where entries were deleted; the search skips over those.
+	 *
+	 * @param f - the key searched for, or null for the left-most child
+	 * @return the left child of the first entry whose key is greater than
+	 *   or equal to f, or the right child of the last entry if there is
+	 *   none; null if the page has no entries
+	 */
+	public BTreePageId findChild(Field f) {
+		if (!isSlotUsed(0))
+			return null;
+		// the used slots before lo hold keys less than f, those from hi on
+		// keys greater than or equal to f
+		int lo = 1, hi = numSlots;
+		boolean entries = false;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int used = nextUsedSlot(mid, hi);
+			if (used < hi)
+				entries = true;
+			if (used < hi && f != null && keys[used].compare(Op.LESS_THAN, f))
+				lo = used + 1;
+			else
+				hi = mid;
+		}
+		if (!entries)
+			return null;
+		int child = lo - 1;
+		while (!isSlotUsed(child))
+			child--;
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
+	}
+
 	/**
 	 * @return an iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -133,11 +133,15 @@ public class BTreeLeafPage extends BTreePage {
 	public BTreeLeafPage getBeforeImage(){
 		try {
 			byte[] oldDataRef = null;
+			long oldLsnRef;
 			synchronized(oldDataLock)
 			{
 				oldDataRef = oldData;
+				oldLsnRef = oldLsn;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			BTreeLeafPage p = new BTreeLeafPage(pid,oldDataRef,keyField);
+			p.setLSN(oldLsnRef);
+			return p;
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -150,6 +154,7 @@ public class BTreeLeafPage extends BTreePage {
 		synchronized(oldDataLock)
 		{
 			oldData = getPageData().clone();
+			oldLsn = lsn;
 		}
 	}
 
@@ -475,6 +480,37 @@ public class BTreeLeafPage extends BTreePage {
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
+	/**
+	 * @return the first used slot from i up to end, or end if there is none
+	 */
+	private int nextUsedSlot(int i, int end) {
+		while (i < end && !isSlotUsed(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page whose key is greater
+	 *   than or equal to f, in order; the first of them is found by binary
+	 *   search over the slots, skipping the empty slots between tuples
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		// the used slots before lo hold keys less than f, those from hi on
+		// keys greater than or equal to f
+		int lo = 0, hi = numSlots;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int used = nextUsedSlot(mid, hi);
+			if (used < hi && tuples[used].getField(keyField).compare(Predicate.Op.LESS_THAN, f))
+				lo = used + 1;
+			else
+				hi = mid;
+		}
+		BTreeLeafPageIterator it = new BTreeLeafPageIterator(this);
+		it.curTuple = lo;
+		return it;
+	}
+
 	/**
 	 * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -26,6 +26,8 @@ public abstract class BTreePage implements Page {
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
+	protected volatile long lsn = 0;
+	protected long oldLsn = 0;
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -131,6 +133,14 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -23,6 +23,8 @@ public class BTreeRootPtrPage implements Page {
 	private int header;
 
 	private byte[] oldData;
+	private volatile long lsn = 0;
+	private volatile long oldLsn = 0;
 
 	/**
 	 * Constructor.
@@ -49,6 +51,7 @@ public class BTreeRootPtrPage implements Page {
 
 	public void setBeforeImage() {
 		oldData = getPageData().clone();
+		oldLsn = lsn;
 	}
 
 	/**
@@ -138,11 +141,21 @@ public class BTreeRootPtrPage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
 		try {
-			return new BTreeRootPtrPage(pid,oldData);
+			BTreeRootPtrPage p = new BTreeRootPtrPage(pid,oldData);
+			p.setLSN(oldLsn);
+			return p;
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -16,6 +16,7 @@ public class BTreeScan implements DbIterator {
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
 	private String tablename;
+	private int tableid;
 	private String alias;
 
 	/**
@@ -60,6 +61,28 @@ public class BTreeScan implements DbIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the id of the table this operator scans
+	 */
+	int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the transaction this scan is running as a part of
+	 */
+	TransactionId getTransactionId() {
+		return tid;
+	}
+
+	/**
+	 * @return the index predicate the tuples returned match, or null if the
+	 *         scan returns all tuples
+	 */
+	IndexPredicate getIndexPredicate() {
+		return ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -75,6 +98,7 @@ public class BTreeScan implements DbIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
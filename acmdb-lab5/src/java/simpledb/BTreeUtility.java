@@ -147,10 +147,10 @@ public class BTreeUtility {
 		
 		// Convert the tuples list to a B+ tree file
 		File hFile = File.createTempFile("table", ".dat");
-		hFile.deleteOnExit();
+		Utility.deleteOnExit(hFile);
 
 		File bFile = File.createTempFile("table_index", ".dat");
-		bFile.deleteOnExit();
+		Utility.deleteOnExit(bFile);
 
 		Type[] typeAr = new Type[columns];
 		Arrays.fill(typeAr, Type.INT_TYPE);
@@ -403,10 +403,10 @@ public class BTreeUtility {
 
 		// Convert the tuples list to a B+ tree file
 		File hFile = File.createTempFile("table", ".dat");
-		hFile.deleteOnExit();
+		Utility.deleteOnExit(hFile);
 
 		File bFile = File.createTempFile("table_index", ".dat");
-		bFile.deleteOnExit();
+		Utility.deleteOnExit(bFile);
 
 		Type[] typeAr = new Type[columns];
 		Arrays.fill(typeAr, Type.INT_TYPE);
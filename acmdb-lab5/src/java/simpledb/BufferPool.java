@@ -8,6 +8,15 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -16,87 +25,174 @@ import java.util.concurrent.ConcurrentSkipListSet;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. The locks themselves are kept by a
+ * {@link LockManager}.
+ * <p>
+ * Resident pages are kept in frames of a concurrent page table. A hit takes
+ * no latch: it pins the frame, reads its page and unpins it. A miss
+ * publishes an empty frame before reading the page, so concurrent misses on
+ * the same page wait for that one read instead of issuing their own.
+ * Eviction only takes frames whose pin count it can swap from 0.
+ * <p>
+ * Callers that keep using a page after getPage returns can pin it with
+ * {@link #pinPage} so it stays resident until {@link #unpinPage}, and take
+ * a short read or write latch on its frame with {@link #latchPage} while
+ * they look at or change its contents. Pins and latches protect the frame
+ * in memory only; they are independent of the transaction locks, which
+ * getPage and pinPage acquire as before.
+ * <p>
+ * The pool runs STEAL/NO-FORCE. Committing a transaction does not write
+ * its pages: their before and after images are appended to the
+ * {@link LogFile}, the commit record is forced, and the pages are handed
+ * to a background page cleaner, which writes them, batching pages with
+ * adjacent page numbers into one write. Any unpinned page can be evicted;
+ * a page changed by a running transaction is logged before it is written.
+ * Before any page is written the log is forced up to the page's LSN, which
+ * usually it already is. Aborting a transaction whose pages reached
+ * disk this way rolls them back from the log.
+ * <p>
+ * Sequential scans read pages ahead of themselves through
+ * {@link #prefetch}, see {@link ReadAhead}. Pages read ahead into the pool
+ * only take free frames; the pool counts how many of them the scan asked
+ * for and how many were evicted or dropped first.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe, all instance fields are final; the state they hold is
+ * kept in concurrent collections and atomics
  */
 public class BufferPool {
 
-    class LockInfo {
-        PageId pid;
-        HashSet<TransactionId> shared = new HashSet<>();
-        TransactionId exclusive = null;
+    /** Bytes per page, including header. */
+    private static final int PAGE_SIZE = 4096;
+
+    private static int pageSize = PAGE_SIZE;
+
+    /** Default number of pages passed to the constructor. This is used by
+     other classes. BufferPool should use the numPages argument to the
+     constructor instead. */
+    public static final int DEFAULT_PAGES = 50;
+
+    private final int npages;
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<>();
+    /** frames counted against npages, including frames still being read */
+    private final AtomicInteger resident = new AtomicInteger(0);
+    /**
+     * pins held through pinPage, per transaction and frame; a pin is
+     * released on the frame it was taken on, even if the page has been
+     * read into another frame since
+     */
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Frame, Integer>> pinsHeld =
+            new ConcurrentHashMap<>();
 
-        LockInfo(PageId pid) {
+    private final LockManager lockManager = new LockManager();
+
+    private final ReplacementPolicy policy;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong bypasses = new AtomicLong(0);
+    private final AtomicLong prefetches = new AtomicLong(0);
+    private final AtomicLong prefetchHits = new AtomicLong(0);
+    private final AtomicLong prefetchWasted = new AtomicLong(0);
+    private final AtomicLong aborts = new AtomicLong(0);
+
+    /**
+     * A slot of the page table. The frame of a page that is being read is
+     * published with a null page and the reading thread's pin; everyone
+     * else waits on loaded.
+     */
+    private static class Frame {
+        /** pin count of a frame that is being evicted */
+        static final int EVICTING = -1;
+
+        final PageId pid;
+        final AtomicInteger pins;
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        volatile Page page;
+        volatile boolean failed = false;
+        /** set while the page was read ahead and nobody asked for it yet */
+        final AtomicBoolean readAhead = new AtomicBoolean(false);
+        /** value of queued when the frame was last handed to the cleaner */
+        volatile long queuedAt;
+
+        /** a frame that the calling thread is about to read a page into */
+        Frame(PageId pid) {
             this.pid = pid;
+            pins = new AtomicInteger(1);
         }
 
-        boolean tryGetLock(TransactionId tid, Permissions perm) {
-            if (exclusive != null && exclusive != tid) return false;
-            if (perm == Permissions.READ_WRITE) {
-                if (shared.size() > 1) return false;
-                if (shared.size() == 1) {
-                    if (shared.contains(tid)) shared.clear();
-                    else return false;
-                }
-                exclusive = tid;
-            } else {
-                shared.add(tid);
-            }
-            return true;
+        /** a frame holding a page that is already in memory */
+        Frame(Page page) {
+            this.pid = page.getId();
+            this.page = page;
+            pins = new AtomicInteger(0);
+            loaded.countDown();
         }
 
-        void freeLock(TransactionId tid) {
-            if (exclusive != null && exclusive.equals(tid)) exclusive = null;
-            else shared.remove(tid);
+        /** @return false if the frame is being evicted and must not be used */
+        boolean pin() {
+            for (;;) {
+                int n = pins.get();
+                if (n == EVICTING) return false;
+                if (pins.compareAndSet(n, n + 1)) return true;
+            }
         }
 
-    }
+        void unpin() {
+            pins.updateAndGet(n -> n > 0 ? n - 1 : n);
+        }
 
-    private ConcurrentHashMap<TransactionId, HashSet<TransactionId>> edges = new ConcurrentHashMap<>();
-    private HashSet<TransactionId> visited = new HashSet<>();
-    synchronized void updateGraph(TransactionId tid, PageId pid) {
-        HashSet<TransactionId> conflicts = new HashSet<>();
-        LockInfo lock = locks.get(pid);
-        synchronized (lock) {
-            if (lock.exclusive != null) conflicts.add(lock.exclusive);
-            conflicts.addAll(lock.shared);
+        boolean tryEvict() {
+            return pins.compareAndSet(0, EVICTING);
         }
-        edges.put(tid, conflicts);
-    }
-    synchronized void clearGraph(TransactionId tid) {
-        edges.remove(tid);
-    }
-    synchronized boolean findCycle(TransactionId root) {
-        visited.clear();
-        return dfs(root, root);
-    }
-    synchronized boolean dfs(TransactionId cur, TransactionId root) {
-        visited.add(cur);
-        boolean ret = false;
-        for (TransactionId nxt: edges.getOrDefault(cur, new HashSet<>())) {
-            if (nxt.equals(root)) return true;
-            if (!visited.contains(nxt)) ret = ret || dfs(nxt, root);
+
+        void awaitLoaded() {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    loaded.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
         }
-        return ret;
     }
 
-    /** Bytes per page, including header. */
-    private static final int PAGE_SIZE = 4096;
+    /** Milliseconds an eviction waits for a pinned page to be unpinned. */
+    private static final long PIN_WAIT = 1000;
 
-    private static int pageSize = PAGE_SIZE;
+    /**
+     * Fraction of the frames the page cleaner tries to keep free of
+     * unwritten committed changes. When more frames than that hold such
+     * changes, the cleaner writes them at once instead of waiting to
+     * gather a larger batch.
+     */
+    public static final double CLEAN_TARGET = 0.25;
 
-    /** Default number of pages passed to the constructor. This is used by
-     other classes. BufferPool should use the numPages argument to the
-     constructor instead. */
-    public static final int DEFAULT_PAGES = 50;
+    /** Milliseconds the page cleaner waits to gather a batch of pages. */
+    public static final long CLEANER_DELAY = 20;
+
+    private static final ScheduledExecutorService cleaner =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-page-cleaner");
+                t.setDaemon(true);
+                return t;
+            });
 
-    private int npages = DEFAULT_PAGES;
-    //    private ArrayList<Page> pages; // LRU
-    private ConcurrentHashMap<PageId, Page> pages = new ConcurrentHashMap<>();
+    /** frames whose committed changes are not on disk yet */
+    private final Set<Frame> writeBack = ConcurrentHashMap.newKeySet();
+    /** counts hand-overs to the cleaner; see writeBackPages */
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicBoolean cleanerScheduled = new AtomicBoolean(false);
+    /** held while committed pages are written */
+    private final ReentrantLock writing = new ReentrantLock();
+    private final AtomicLong pagesWritten = new AtomicLong(0);
+    private final AtomicLong writeCalls = new AtomicLong(0);
 
-    private ConcurrentHashMap<PageId, LockInfo> locks = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<TransactionId, HashSet<PageId>> dirty = new ConcurrentHashMap<>();
+    /** Number of frames in a scan ring. */
+    public static final int SCAN_RING_PAGES = 8;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -104,9 +200,86 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to choose pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
         npages = numPages;
-        pages = new ConcurrentHashMap<>();
+        this.policy = policy;
+    }
+
+    /** @return the replacement policy used by this buffer pool */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages in the pool, including pages still being read */
+    public int getResidentCount() {
+        return resident.get();
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** @return the number of committed pages written back so far */
+    public long getWriteBackCount() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * @return the number of writes used to write back committed pages;
+     *   adjacent pages share one write
+     */
+    public long getWriteBackCallCount() {
+        return writeCalls.get();
+    }
+
+    /** @return the number of pages read ahead of scans */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /** @return the number of pages read ahead that a scan then asked for */
+    public long getPrefetchHitCount() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return the number of pages read ahead that were evicted, dropped
+     *   from their ring or found to be out of date before a scan asked for
+     *   them
+     */
+    public long getPrefetchWasteCount() {
+        return prefetchWasted.get();
+    }
+
+    /**
+     * @return the number of transactions that were aborted. It goes up
+     *   after the pages of an aborted transaction are rolled back and before
+     *   its locks are released.
+     */
+    public long getAbortCount() {
+        return aborts.get();
     }
 
     public static int getPageSize() {
@@ -140,38 +313,347 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, like
+     * {@link #getPage(TransactionId, PageId, Permissions)}. If a scan ring
+     * is given and the page is requested READ_ONLY, a page that is not
+     * resident in the pool is read into the ring instead of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan ring of the caller, or null to use the pool
+     * @see #getScanRing(int)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
         // some code goes here
-        if (locks.get(pid) == null) locks.put(pid, new LockInfo(pid));
-        LockInfo lock = locks.get(pid);
-        while (true) {
-            synchronized (lock) {
-                if (lock.tryGetLock(tid, perm)) break;
+        return fetch(tid, pid, perm, ring, false);
+    }
+
+    /**
+     * Retrieve the specified page like
+     * {@link #getPage(TransactionId, PageId, Permissions)} and pin it. A
+     * pinned page is never evicted; every call should be matched by a call
+     * to {@link #unpinPage(TransactionId, PageId)} once the caller no longer
+     * uses the page. Pins that are still held when the transaction completes
+     * are released then. A pinned page is not discarded until it is unpinned.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return fetch(tid, pid, perm, null, true);
+    }
+
+    /**
+     * Release a pin taken by {@link #pinPage}. Does nothing if the pin was
+     * already released because the transaction completed.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the pinned page
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<Frame, Integer> held = pinsHeld.get(tid);
+        if (held == null) return; // released when the transaction completed
+        for (Frame f : held.keySet()) {
+            if (!f.pid.equals(pid)) continue;
+            for (Integer n; (n = held.get(f)) != null; ) {
+                if (n == 1 ? held.remove(f, n) : held.replace(f, n, n - 1)) {
+                    f.unpin();
+                    return;
+                }
             }
-            updateGraph(tid, pid);
-            if (findCycle(tid)) {
-//                System.out.println("deadlock!!!!");
-                throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Release the pins that tid still holds. Called when it completes, and
+     * by {@link LogFile#rollback} before the pages it changed are dropped.
+     */
+    void unpinAll(TransactionId tid) {
+        ConcurrentHashMap<Frame, Integer> held = pinsHeld.remove(tid);
+        if (held == null) return;
+        held.forEach((f, n) -> {
+            for (int i = 0; i < n; i++) f.unpin();
+        });
+    }
+
+    /** @return the number of pins held on the page, 0 if it is not resident */
+    public int getPinCount(PageId pid) {
+        Frame f = frames.get(pid);
+        return f == null ? 0 : Math.max(f.pins.get(), 0);
+    }
+
+    /**
+     * Latch the frame of a pinned page. A shared latch keeps the contents of
+     * the page from changing while it is read; an exclusive latch is needed
+     * to change them. Latches are held for the duration of one operation on
+     * the page, not for the rest of the transaction. They take no part in
+     * deadlock detection, so callers that hold more than one latch must
+     * acquire them in a fixed order.
+     *
+     * @param pid the ID of a page the caller has pinned
+     * @param exclusive true for an exclusive latch, false for a shared one
+     */
+    public void latchPage(PageId pid, boolean exclusive) {
+        Frame f = pinnedFrame(pid);
+        if (exclusive) f.latch.writeLock().lock();
+        else f.latch.readLock().lock();
+    }
+
+    /**
+     * Release a latch taken by {@link #latchPage}.
+     *
+     * @param pid the ID of the latched page
+     * @param exclusive whether the latch was exclusive
+     */
+    public void unlatchPage(PageId pid, boolean exclusive) {
+        Frame f = pinnedFrame(pid);
+        if (exclusive) f.latch.writeLock().unlock();
+        else f.latch.readLock().unlock();
+    }
+
+    private Frame pinnedFrame(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f == null || f.pins.get() <= 0)
+            throw new IllegalStateException("page " + pid + " is not pinned");
+        return f;
+    }
+
+    private Page fetch(TransactionId tid, PageId pid, Permissions perm, ScanRing ring, boolean pin)
+            throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
+        Page pg = lookup(pid, perm == Permissions.READ_ONLY ? ring : null, pin);
+        // a pinned frame is neither evicted nor discarded, so it is still
+        // the one the page is in
+        if (pin) pinsHeld.computeIfAbsent(tid, t -> new ConcurrentHashMap<>()).merge(frames.get(pid), 1, Integer::sum);
+        return pg;
+    }
+
+    /**
+     * Find pid in the pool, or in the ring if it is given, reading it from
+     * disk if it is in neither. The frame stays pinned if pin is set.
+     */
+    private Page lookup(PageId pid, ScanRing ring, boolean pin) throws DbException {
+        for (;;) {
+            Frame f = frames.get(pid);
+            if (f == null) {
+                if (ring != null) {
+                    Page pg = ring.get(pid);
+                    if (pg != null && ring.takeReadAhead(pid)) {
+                        if (isCurrent(pg)) {
+                            prefetchHits.incrementAndGet();
+                        } else {
+                            ring.remove(pid);
+                            prefetchWasted.incrementAndGet();
+                            pg = null;
+                        }
+                    }
+                    if (pg == null) pg = readIntoRing(pid, ring, false);
+                    if (pg == null) continue;
+                    return pg;
+                }
+                Page pg = readIntoPool(pid, pin, false);
+                if (pg != null) return pg;
+                continue; // another thread published a frame first
+            }
+            if (!f.pin()) {
+                Thread.yield(); // being evicted, look again once it is gone
+                continue;
+            }
+            boolean keep = false;
+            try {
+                f.awaitLoaded();
+                if (f.failed) continue;
+                hits.incrementAndGet();
+                if (f.readAhead.compareAndSet(true, false)) prefetchHits.incrementAndGet();
+                policy.pageAccessed(pid);
+                keep = pin;
+                return f.page;
+            } finally {
+                if (!keep) f.unpin();
             }
         }
-        clearGraph(tid);
+    }
 
-        dirty.putIfAbsent(tid, new HashSet<>());
-        dirty.get(tid).add(pid);
+    /**
+     * A page read ahead into a ring is private to the scan, so nothing
+     * changes it there; it is out of date if a newer version of it was
+     * written since, which gave the page on disk another LSN.
+     */
+    private boolean isCurrent(Page pg) {
+        try {
+            return Database.getCatalog().getDatabaseFile(pg.getId().getTableId())
+                    .getPageLSN(pg.getId()) == pg.getLSN();
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-        if (pages.get(pid) != null) {
-            return pages.get(pid);
-        } else {
-            if (pages.size() >= npages) evictPage();
+    /**
+     * Read a page into a scan ring, unless it is being read into the ring
+     * already, in which case that read is waited for.
+     *
+     * @param ahead whether the page is read ahead of the scan
+     * @return the page, or null if a read of it by another thread failed
+     */
+    private Page readIntoRing(PageId pid, ScanRing ring, boolean ahead) throws DbException {
+        if (!ring.startLoading(pid)) return ring.get(pid);
+        Page pg = null;
+        try {
+            pg = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } finally {
+            if (pg == null) ring.cancelLoading(pid);
+        }
+        if (ring.put(pg, ahead)) prefetchWasted.incrementAndGet();
+        bypasses.incrementAndGet();
+        if (ahead) prefetches.incrementAndGet();
+        return pg;
+    }
+
+    /**
+     * Retrieve a page without locking it, for callers that check by other
+     * means that what they read is consistent, like the optimistic descent
+     * of {@link BTreeFile}. Running transactions may be changing the page
+     * while it is read.
+     *
+     * @param pid the ID of the requested page
+     */
+    Page getPageUnlocked(PageId pid) throws DbException {
+        return lookup(pid, null, false);
+    }
+
+    /**
+     * Read a page that a scan is about to ask for ahead of time, without
+     * locking it; the scan locks the page when it asks for it. A page that
+     * is resident in the pool is not read again. With a ring, the page is
+     * read into the ring. Without one, it is read into the pool, but only
+     * into a free frame: reading ahead never evicts a page.
+     *
+     * @param pid the ID of the page
+     * @param ring the scan ring of the scan, or null
+     * @return the page, or null if it was not read
+     */
+    Page prefetch(PageId pid, ScanRing ring) throws DbException {
+        Frame f = frames.get(pid);
+        if (f != null) return f.page;
+        if (ring != null) return readIntoRing(pid, ring, true);
+        return readIntoPool(pid, false, true);
+    }
+
+    /** Count pages read ahead that were never asked for. */
+    void prefetchesWasted(int n) {
+        prefetchWasted.addAndGet(n);
+    }
+
+    /**
+     * Publish a frame for pid and read the page into it. The frame stays
+     * pinned on success if pin is set.
+     *
+     * @param ahead whether the page is read ahead of a scan; if so it is
+     *   only read into a free frame
+     * @return the page, or null if another thread published a frame for pid
+     *   first and the caller should use that one, or if the page was to be
+     *   read ahead and there was no free frame
+     */
+    private Page readIntoPool(PageId pid, boolean pin, boolean ahead) throws DbException {
+        Frame f = new Frame(pid);
+        if (frames.putIfAbsent(pid, f) != null) return null;
+        boolean reserved = false;
+        try {
+            reserved = reserveFrame(f, !ahead);
+            if (!reserved) return null;
+            if (ahead) prefetches.incrementAndGet();
+            else misses.incrementAndGet();
             Page pg = Database
                     .getCatalog()
                     .getDatabaseFile(pid.getTableId())
                     .readPage(pid);
-            pages.put(pid, pg);
             pg.setBeforeImage();
+            f.readAhead.set(ahead);
+            f.page = pg;
+            policy.pageAdmitted(pid);
             return pg;
+        } finally {
+            if (f.page == null) {
+                // wake the waiters; they retry and read the page themselves
+                f.failed = true;
+                frames.remove(pid, f);
+                if (reserved) resident.decrementAndGet();
+            }
+            f.loaded.countDown();
+            if (!pin || f.failed) f.unpin();
+        }
+    }
+
+    /**
+     * Count one more frame against npages, evicting pages while the pool is
+     * full if evict is set.
+     *
+     * @return false if the pool is full and evict is not set
+     */
+    private boolean reserveFrame(Frame self, boolean evict) throws DbException {
+        for (;;) {
+            int n = resident.get();
+            if (n >= npages) {
+                if (!evict) return false;
+                evictPage(self);
+            }
+            else if (resident.compareAndSet(n, n + 1)) return true;
         }
     }
 
+    /**
+     * Put a page that was modified by a transaction into the pool, replacing
+     * the page held by its frame or admitting it if it was evicted meanwhile.
+     * A page is admitted before room is made for it, since no page can be
+     * evicted while the page table is being updated; other pages are then
+     * evicted until the pool holds no more than npages pages again.
+     */
+    private void cachePage(Page p) throws DbException {
+        Frame[] admitted = new Frame[1];
+        frames.compute(p.getId(), (pid, f) -> {
+            if (f != null && f.pins.get() != Frame.EVICTING) {
+                f.page = p;
+                return f;
+            }
+            resident.incrementAndGet();
+            policy.pageAdmitted(pid);
+            admitted[0] = new Frame(p);
+            admitted[0].pin();
+            return admitted[0];
+        });
+        if (admitted[0] == null) return;
+        try {
+            while (resident.get() > npages) evictPage(admitted[0]);
+        } finally {
+            admitted[0].unpin();
+        }
+    }
+
+    /**
+     * Returns a scan ring for a full scan of a table with the given number
+     * of pages, or null if the table is small enough to be cached in the
+     * pool. Tables that do not fit in the pool get a ring.
+     *
+     * @param tablePages the number of pages of the table to be scanned
+     */
+    public ScanRing getScanRing(int tablePages) {
+        if (tablePages <= npages) return null;
+        return new ScanRing(SCAN_RING_PAGES);
+    }
+
+    /** @return the number of pages that full scans read into a scan ring instead of the pool */
+    public long getBypassCount() {
+        return bypasses.get();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -184,11 +666,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        LockInfo lock = locks.get(pid);
-        synchronized (lock) {
-            lock.freeLock(tid);
-        }
-        dirty.get(tid).remove(pid);
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -206,10 +684,12 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        LockInfo lock = locks.get(pid);
-        synchronized (lock) {
-            return lock.exclusive == tid || lock.shared.contains(tid);
-        }
+        return lockManager.holdsLock(tid, pid);
+    }
+
+    /** @return the lock manager used by this buffer pool */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
@@ -223,28 +703,27 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        dirty.putIfAbsent(tid, new HashSet<>());
-        for (PageId pid: dirty.remove(tid)) {
-            Page pg = pages.get(pid);
-            if (pg != null && locks.get(pid).exclusive != null) {
-                if (commit) {
-                    if (pg.isDirty() != null) {
-                        flushPage(pid);
-                        pg.setBeforeImage();
-                    }
-                } else {
-//                        pages.set(pages.indexOf(pg), pg.getBeforeImage());
-                    pages.put(pid, pg.getBeforeImage());
-                }
-            }
-
-
-
-            LockInfo lock = locks.get(pid);
-            synchronized (lock) {
-                lock.freeLock(tid);
+        LogFile log = Database.getLogFile();
+        // pins go first: rolling back drops the transaction's pages
+        unpinAll(tid);
+        if (commit) {
+            flushPages(tid);
+            // Transaction.commit has logged the commit already
+            if (log.isActive(tid)) log.logCommit(tid);
+        } else {
+            for (PageId pid: lockManager.getLockedPages(tid)) {
+                Frame f = frames.get(pid);
+                Page pg = f == null ? null : f.page;
+                if (pg != null && lockManager.holdsExclusive(tid, pid))
+                    f.page = pg.getBeforeImage();
             }
+            // pages that were stolen are rolled back from the log; this
+            // also drops them from the pool, as their in-memory before
+            // image may have been read back after the steal
+            if (log.isActive(tid)) log.logAbort(tid);
+            aborts.incrementAndGet();
         }
+        lockManager.releaseAll(tid);
     }
 
 
@@ -259,6 +738,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
      *
+     * The entry of the tuple is added to each secondary index on the table,
+     * see {@link Catalog#getIndexes}.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -267,13 +749,12 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        Database.getCatalog()
-                .getDatabaseFile(tableId)
-                .insertTuple(tid, t)
-                .forEach(p -> {
-                    p.markDirty(true, tid);
-                    pages.put(p.getId(), p);
-                });
+        for (Page p : Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t)) {
+            p.markDirty(true, tid);
+            cachePage(p);
+        }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            insertTuple(tid, index.getFile().getId(), index.entry(t));
     }
 
     /**
@@ -286,6 +767,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
      *
+     * The entry of the tuple is removed from each secondary index on its
+     * table, see {@link Catalog#getIndexes}.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -293,15 +777,19 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        Database.getCatalog()
-                .getDatabaseFile(t.getRecordId().getPageId().getTableId())
-                .deleteTuple(tid, t)
-                .forEach(p -> {
-                    p.markDirty(true, tid);
-
-//                    System.out.println(tid);
-                    pages.put(p.getId(), p);
-                });
+        int tableId = t.getRecordId().getPageId().getTableId();
+        // find the entries while the tuple still has its RecordId
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            Tuple entry = index.findEntry(tid, t);
+            if (entry != null) entries.add(entry);
+        }
+        for (Page p : Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t)) {
+            p.markDirty(true, tid);
+            cachePage(p);
+        }
+        for (Tuple entry : entries)
+            deleteTuple(tid, entry);
     }
 
     /**
@@ -309,10 +797,10 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid: pages.keySet()) {
+        for (PageId pid: frames.keySet()) {
             flushPage(pid);
         }
     }
@@ -324,56 +812,292 @@ public class BufferPool {
 
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
+
+     A page that is pinned is dropped once its pins are released; pins
+     other than those of pinPage are short-lived. Discarding a page that
+     stays pinned for PIN_WAIT ms is an error. A page that is being evicted
+     is dropped once the eviction is done.
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-//        for (Page pg: pages) if (pg.getId().equals(pid)) {
-        pages.remove(pid);
-//            return;
-//        }
+        discardPage(pid, true);
+    }
+
+    /**
+     * Remove a page from the buffer pool as {@link #discardPage} does,
+     * unless it is being evicted. An eviction may have to log the page, so
+     * callers that hold the log monitor use this instead of waiting for it.
+     *
+     * @return false if the page is being evicted and was left in the pool
+     */
+    boolean tryDiscardPage(PageId pid) {
+        return discardPage(pid, false);
+    }
+
+    /** Wait until an eviction of the page that is in progress is done. */
+    void awaitEviction(PageId pid) {
+        for (;;) {
+            Frame f = frames.get(pid);
+            if (f == null || f.pins.get() != Frame.EVICTING) return;
+            Thread.yield();
+        }
+    }
+
+    private boolean discardPage(PageId pid, boolean waitForEviction) {
+        Frame evicting = frames.get(pid);
+        if (!waitForEviction && evicting != null && evicting.pins.get() == Frame.EVICTING)
+            return false;
+        writing.lock();
+        try {
+            // the caller is about to reinitialize this location on disk, so
+            // a committed image of it must not be written afterwards
+            writeBack.removeIf(f -> f.pid.getTableId() == pid.getTableId()
+                    && f.pid.pageNumber() == pid.pageNumber());
+        } finally {
+            writing.unlock();
+        }
+        long deadline = System.currentTimeMillis() + PIN_WAIT;
+        for (;;) {
+            Frame f = frames.get(pid);
+            if (f == null || f.page == null) return true;
+            if (f.tryEvict()) {
+                if (frames.remove(pid, f)) {
+                    policy.pageRemoved(pid);
+                    resident.decrementAndGet();
+                }
+                return true;
+            }
+            if (f.pins.get() == Frame.EVICTING) {
+                if (!waitForEviction) return false;
+            } else if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("page " + pid + " is pinned");
+            }
+            Thread.yield();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
 
-        Page pg = pages.get(pid);
-        if (pg == null) return;
-//        for (Page pg: pages) if (pg.getId().equals(pid)) {
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pg);
-        pg.markDirty(false, null);
-//        }
+        Frame f = frames.get(pid);
+        if (f == null) return;
+        // the shared latch keeps writers from changing the page mid-write
+        f.latch.readLock().lock();
+        try {
+            Page pg = f.page;
+            if (pg == null) return;
+            logIfDirty(pg);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pg);
+            pg.markDirty(false, null);
+            writeBack.remove(f);
+        } finally {
+            f.latch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write-ahead rule for a page that is about to be written: if a running
+     * transaction changed it, log its before and after image, and force the
+     * log up to the page's LSN.
+     */
+    private void logIfDirty(Page pg) throws IOException {
+        TransactionId dirtier = pg.isDirty();
+        if (dirtier != null)
+            Database.getLogFile().logWrite(dirtier, pg.getBeforeImage(), pg);
+        Database.getLogFile().force(pg.getLSN());
     }
 
     /** Write all pages of the specified transaction to disk.
+     * <p>
+     * The pages are not written here: an update record with the before and
+     * after image of each page is appended to the log, the page becomes the
+     * new before image, and it is handed to the page cleaner. Called when
+     * the transaction commits, before the commit record is written.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        boolean handed = false;
+        for (PageId pid: lockManager.getLockedPages(tid)) {
+            Frame f = frames.get(pid);
+            Page pg = f == null ? null : f.page;
+            if (pg == null || !lockManager.holdsExclusive(tid, pid))
+                continue;
+            if (pg.isDirty() != null) {
+                Database.getLogFile().logWrite(tid, pg.getBeforeImage(), pg);
+                pg.markDirty(false, null);
+                f.queuedAt = queued.incrementAndGet();
+                writeBack.add(f);
+                handed = true;
+            }
+            // also for pages that were written while tid ran, which are
+            // clean but newer than their before image
+            pg.setBeforeImage();
+        }
+        if (handed) scheduleCleaner();
+    }
+
+    /**
+     * Write every committed page that the page cleaner has not written yet,
+     * and wait for writes the cleaner has already started.
+     */
+    public void flushCommittedPages() throws IOException {
+        writeBackPages();
+    }
+
+    private void scheduleCleaner() {
+        long delay = writeBack.size() > (1 - CLEAN_TARGET) * npages ? 0 : CLEANER_DELAY;
+        if (cleanerScheduled.compareAndSet(false, true))
+            cleaner.schedule(this::clean, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void clean() {
+        cleanerScheduled.set(false);
+        try {
+            writeBackPages();
+        } catch (IOException e) {
+            // the pages stay queued and go out with the next batch
+            e.printStackTrace();
+            return;
+        }
+        // frames handed over during the pass
+        if (!writeBack.isEmpty()) scheduleCleaner();
+    }
 
+    /**
+     * Write the frames queued for write-back, sorted and batched. The log is
+     * forced first up to the largest LSN of those pages, and only frames
+     * that were queued before the force are written, so every update record
+     * for them is on disk before they are. Usually their commit has forced
+     * the log already. The force happens before taking the writing lock:
+     * rollback and recovery discard pages, which takes that lock, while
+     * holding the log.
+     */
+    private void writeBackPages() throws IOException {
+        long upTo = queued.get();
+        long lsn = 0;
+        for (Frame f : writeBack) {
+            Page pg = f.page;
+            if (f.queuedAt <= upTo && pg != null) lsn = Math.max(lsn, pg.getLSN());
+        }
+        Database.getLogFile().force(lsn);
+        writing.lock();
+        try {
+            ArrayList<Frame> batch = new ArrayList<>();
+            for (Frame f : writeBack) {
+                if (f.queuedAt > upTo) continue;
+                // frames being evicted are written by the evicting thread
+                if (!f.pin()) continue;
+                if (writeBack.remove(f)) batch.add(f);
+                else f.unpin();
+            }
+            try {
+                writeCommitted(batch);
+            } catch (IOException e) {
+                writeBack.addAll(batch);
+                throw e;
+            } finally {
+                for (Frame f : batch) f.unpin();
+            }
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    /**
+     * Write the committed images of the given frames, which the caller has
+     * pinned. Runs of pages of one file with consecutive page numbers go out
+     * in a single write.
+     */
+    private void writeCommitted(ArrayList<Frame> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        batch.sort((a, b) -> a.pid.getTableId() != b.pid.getTableId()
+                ? Integer.compare(a.pid.getTableId(), b.pid.getTableId())
+                : Integer.compare(a.pid.pageNumber(), b.pid.pageNumber()));
+        ArrayList<Page> run = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            PageId pid = batch.get(i).pid;
+            // the before image is the last committed state of the page, even
+            // if another transaction has changed it since
+            run.add(batch.get(i).page.getBeforeImage());
+            PageId next = i + 1 < batch.size() ? batch.get(i + 1).pid : null;
+            if (next != null && next.getTableId() == pid.getTableId()
+                    && next.pageNumber() == pid.pageNumber() + 1)
+                continue;
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePages(run);
+            writeCalls.incrementAndGet();
+            pagesWritten.addAndGet(run.size());
+            run = new ArrayList<>();
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page is chosen by the replacement policy among the unpinned
+     * pages; a page changed by a running transaction is stolen, that is
+     * logged and written. Concurrent evictions may pick the same victim;
+     * only the one that swaps its pin count to EVICTING goes ahead. If every
+     * page is pinned the caller waits up to PIN_WAIT ms for a pin to be
+     * released.
+     *
+     * @param self the frame the caller is making room for, which it pins
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(Frame self) throws DbException {
         // some code goes here
         // not necessary for lab1
 
-        for (PageId pid: pages.keySet()) {
-            Page pg = pages.get(pid);
-            if (pg.isDirty() == null) {
-                discardPage(pid);
-                return;
+        long deadline = 0;
+        for (;;) {
+            PageId victim = policy.victim(pid -> {
+                Frame f = frames.get(pid);
+                return f != null && f.pins.get() == 0 && f.page != null;
+            });
+            if (victim == null) {
+                boolean pinned = frames.values().stream().anyMatch(f -> f != self && f.pins.get() > 0);
+                if (!pinned) throw new DbException("no page in the buffer pool can be evicted");
+                // most pins are short-lived, so wait a while for one to go away
+                if (deadline == 0) deadline = System.currentTimeMillis() + PIN_WAIT;
+                else if (System.currentTimeMillis() > deadline)
+                    throw new DbException("all pages in the buffer pool are pinned");
+                Thread.yield();
+                continue;
+            }
+            Frame f = frames.get(victim);
+            if (f == null || !f.tryEvict()) continue;
+            Page pg = f.page;
+            if (pg.isDirty() != null || writeBack.contains(f)) {
+                // the cleaner skips frames being evicted, so a committed
+                // page that is not written yet is written here; a page of
+                // a running transaction is logged first
+                try {
+                    logIfDirty(pg);
+                    writing.lock();
+                    try {
+                        // unless discardPage dropped the write meanwhile
+                        if (writeBack.remove(f) || pg.isDirty() != null)
+                            Database.getCatalog().getDatabaseFile(victim.getTableId()).writePage(pg);
+                    } finally {
+                        writing.unlock();
+                    }
+                } catch (IOException e) {
+                    f.pins.set(0);
+                    throw new DbException("could not write page " + victim + ": " + e.getMessage());
+                }
             }
+            // a modified copy may have replaced the frame in the meantime
+            if (frames.remove(victim, f)) policy.pageRemoved(victim);
+            resident.decrementAndGet();
+            evictions.incrementAndGet();
+            if (f.readAhead.get()) prefetchWasted.incrementAndGet();
+            return;
         }
-        throw new DbException("");
     }
 
 }
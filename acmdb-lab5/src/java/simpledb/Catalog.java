@@ -23,6 +23,7 @@ public class Catalog {
         DbFile file;
         String name;
         String pkey;
+        List<SecondaryIndex> indexes = new ArrayList<>();
         public Table(DbFile f, String n, String p) {
             file = f;
             name = n;
@@ -73,6 +74,34 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a secondary index on a table to the catalog. The BTreeFile of the
+     * index is added as a table with the given name; from now on the buffer
+     * pool keeps the index up to date as tuples are inserted into and
+     * deleted from the table.
+     * @param index the index; the table it is on must be in the catalog
+     * @param name the name of the table of the index
+     * @throws NoSuchElementException if the table the index is on doesn't exist
+     */
+    public void addIndex(SecondaryIndex index, String name) throws NoSuchElementException {
+        Table table = tables.get(index.getTableId());
+        if (table == null) throw new NoSuchElementException();
+        addTable(index.getFile(), name);
+        table.indexes.add(index);
+    }
+
+    /**
+     * Returns the secondary indexes on the specified table, none if the
+     * table doesn't exist
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        Table table = tables.get(tableid);
+        if (table == null) return Collections.emptyList();
+        return Collections.unmodifiableList(table.indexes);
+    }
+
     private <T> T getTableInfo(Function<Table, Boolean> judge, Function<Table, T> info) throws NoSuchElementException {
         for (Table table: tables.values()) if (judge.apply(table)) {
             return info.apply(table);
@@ -142,6 +171,19 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * Each line describes one table as <code>name (field type, ...)</code>,
+     * where a field may be annotated with <code>pk</code>, the primary key,
+     * and <code>index</code>, a {@link SecondaryIndex} on the field stored in
+     * <code>name.field.idx</code> and built from the table if that file
+     * doesn't exist; the line is
+     * optionally followed by options of the form <code>key=value</code>:
+     * <ul>
+     * <li><code>io=raf|channel|mmap|compressed</code> the page I/O of the
+     *   table's file, see {@link PageIO}
+     * <li><code>format=fixed|slotted|pax</code> the page format of the
+     *   table, see {@link HeapFile#SLOTTED} and {@link HeapFile#PAX}
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -159,6 +201,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -170,11 +213,15 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().isEmpty())
+                            continue;
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -182,13 +229,42 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String ioKind = PageIO.defaultKind();
+                String format = HeapFile.FIXED;
+                for (String opt : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (opt.isEmpty()) continue;
+                    String[] kv = opt.split("=", 2);
+                    if (kv.length == 2 && kv[0].equals("io"))
+                        ioKind = kv[1];
+                    else if (kv.length == 2 && kv[0].equals("format")
+                            && (kv[1].equals(HeapFile.FIXED) || kv[1].equals(HeapFile.SLOTTED)
+                                || kv[1].equals(HeapFile.PAX)))
+                        format = kv[1];
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, ioKind, format);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    String indexName = name + "." + namesAr[field];
+                    File indexFile = new File(baseFolder + "/" + indexName + ".idx");
+                    boolean build = indexFile.length() == 0;
+                    SecondaryIndex index = new SecondaryIndex(indexFile, tabHf.getId(), field);
+                    addIndex(index, indexName);
+                    if (build)
+                        index.build();
+                    System.out.println("Added index : " + indexName);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println("Cannot build index of " + line + ": " + e.getMessage());
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
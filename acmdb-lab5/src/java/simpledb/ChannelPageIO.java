@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Page I/O with positional reads and writes on a FileChannel. There is no
+ * shared file pointer, so concurrent readers of one file do not wait for
+ * each other.
+ *
+ * @Threadsafe
+ */
+public class ChannelPageIO implements PageIO {
+
+    protected final RandomAccessFile raf;
+    protected final FileChannel channel;
+
+    public ChannelPageIO(File f) throws IOException {
+        raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
+    }
+
+    public int read(long pos, byte[] buf) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buf);
+        while (dst.hasRemaining()) {
+            int r = channel.read(dst, pos + dst.position());
+            if (r < 0) break;
+        }
+        return dst.position() == 0 && buf.length > 0 ? -1 : dst.position();
+    }
+
+    public void write(long pos, byte[] data) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(data);
+        while (src.hasRemaining())
+            channel.write(src, pos + src.position());
+    }
+
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,21 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Exception that is thrown when a page read from disk fails its checksum. */
+public class ChecksumException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int pageNumber;
+
+    public ChecksumException(File file, int pageNumber) {
+        super("page " + pageNumber + " of " + file + " does not match its checksum");
+        this.pageNumber = pageNumber;
+    }
+
+    /** @return the number of the page that failed its checksum */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a circular list
+ * with a reference bit; the hand sweeps the list, clearing reference bits,
+ * and stops at the first evictable page whose bit is already clear. A page
+ * that is accessed between two sweeps therefore survives the next one.
+ * <p>
+ * Setting a reference bit takes no lock, so buffer pool hits do not
+ * contend with each other; only changes to the ring are synchronized.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    /** A position on the ring. */
+    private static class Slot {
+        final PageId pid;
+        volatile boolean referenced = true;
+        int index;
+
+        Slot(PageId pid, int index) {
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    private final ArrayList<Slot> ring = new ArrayList<>();
+    private final ConcurrentHashMap<PageId, Slot> slots = new ConcurrentHashMap<>();
+    private int hand = 0;
+
+    public synchronized void pageAdmitted(PageId pid) {
+        Slot slot = slots.get(pid);
+        if (slot != null) {
+            slot.referenced = true;
+            return;
+        }
+        slot = new Slot(pid, ring.size());
+        slots.put(pid, slot);
+        ring.add(slot);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Slot slot = slots.get(pid);
+        if (slot != null) slot.referenced = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Slot slot = slots.remove(pid);
+        if (slot == null) return;
+        // move the last entry into the hole so the ring stays dense
+        int last = ring.size() - 1;
+        if (slot.index != last) {
+            Slot moved = ring.get(last);
+            ring.set(slot.index, moved);
+            moved.index = slot.index;
+        }
+        ring.remove(last);
+        if (hand >= ring.size()) hand = 0;
+    }
+
+    public synchronized PageId victim(Function<PageId, Boolean> evictable) {
+        // two full sweeps: the first may only be clearing reference bits
+        for (int i = 0; i < 2 * ring.size(); i++) {
+            Slot slot = ring.get(hand);
+            hand = (hand + 1) % ring.size();
+            if (!evictable.apply(slot.pid)) continue;
+            if (slot.referenced) {
+                slot.referenced = false;
+                continue;
+            }
+            return slot.pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Page I/O that stores each page of a file compressed, for cold tables
+ * whose pages (padded strings, small ints, empty slots) are mostly zeros.
+ * Callers read and write whole pages at page-aligned positions, as
+ * HeapFile does, and see them uncompressed; the file on disk holds the
+ * compressed images and is a fraction of the size.
+ * <p>
+ * Each page is deflated on its own, so a page is read with one read of its
+ * image. A page table, kept next to the file in a file named like it with
+ * ".ptt" appended, maps the page number to where the image is: one entry
+ * of a long offset, an int length and an int capacity per page. A page of
+ * zeros takes no space (length 0), and a page that does not compress is
+ * stored as it is (length of a page). An image is rewritten in place when
+ * it fits the capacity of its slot; otherwise it moves to a new slot at the
+ * end of the file, rounded up to {@link #GRANULE} bytes so that it can grow
+ * a little in place, and the old slot is not reused.
+ * <p>
+ * The image is written before its entry, so after a crash the page table
+ * still points at the old image, or at an image that fails the page's
+ * checksum if it was rewritten in place.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageIO implements PageIO {
+
+    /** The unit of space of the slots of page images. */
+    public static final int GRANULE = 256;
+
+    /** Suffix of the page table file, appended to the path of the file. */
+    public static final String SUFFIX = ".ptt";
+
+    private static final int ENTRY_SIZE = 16;
+
+    private final PageIO images;
+    private final RandomAccessFile table;
+    private final int pageSize;
+
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private int pages = 0;
+    private long end;
+
+    /**
+     * Open a compressed file with the given page size, creating it if it
+     * does not exist.
+     */
+    public CompressedPageIO(File f, int pageSize) throws IOException {
+        this.pageSize = pageSize;
+        images = new ChannelPageIO(f);
+        table = new RandomAccessFile(new File(f.getPath() + SUFFIX), "rw");
+        end = images.length();
+
+        byte[] data = new byte[(int) (table.length() / ENTRY_SIZE * ENTRY_SIZE)];
+        table.readFully(data);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        grow(data.length / ENTRY_SIZE);
+        for (int i = 0; i < data.length / ENTRY_SIZE; i++) {
+            offsets[i] = in.getLong();
+            lengths[i] = in.getInt();
+            capacities[i] = in.getInt();
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+        pages = data.length / ENTRY_SIZE;
+    }
+
+    private void grow(int n) {
+        if (n <= offsets.length) return;
+        int size = Math.max(n, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        capacities = Arrays.copyOf(capacities, size);
+    }
+
+    private void checkAligned(long pos, int len) throws IOException {
+        if (pos % pageSize != 0 || len % pageSize != 0)
+            throw new IOException("compressed page I/O needs whole pages, got "
+                    + len + " bytes at " + pos);
+    }
+
+    public synchronized int read(long pos, byte[] buf) throws IOException {
+        checkAligned(pos, buf.length);
+        int first = (int) (pos / pageSize);
+        if (first >= pages && buf.length > 0) return -1;
+        int n = Math.min(buf.length / pageSize, pages - first);
+        for (int i = 0; i < n; i++)
+            readPage(first + i, buf, i * pageSize);
+        return n * pageSize;
+    }
+
+    private void readPage(int pgno, byte[] buf, int off) throws IOException {
+        int len = lengths[pgno];
+        if (len == 0) {
+            Arrays.fill(buf, off, off + pageSize, (byte) 0);
+            return;
+        }
+        byte[] image = new byte[len];
+        if (images.read(offsets[pgno], image) != len)
+            throw new IOException("image of page " + pgno + " is cut short");
+        if (len == pageSize) {
+            System.arraycopy(image, 0, buf, off, pageSize);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(image);
+            if (inflater.inflate(buf, off, pageSize) != pageSize)
+                throw new IOException("image of page " + pgno + " does not inflate to a page");
+        } catch (DataFormatException e) {
+            throw new IOException("image of page " + pgno + " is damaged", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public synchronized void write(long pos, byte[] data) throws IOException {
+        checkAligned(pos, data.length);
+        int first = (int) (pos / pageSize);
+        for (int i = 0; i < data.length / pageSize; i++)
+            writePage(first + i, data, i * pageSize);
+    }
+
+    private void writePage(int pgno, byte[] data, int off) throws IOException {
+        grow(pgno + 1);
+        byte[] image = compress(data, off);
+        if (image.length > capacities[pgno]) {
+            offsets[pgno] = end;
+            capacities[pgno] = (image.length + GRANULE - 1) / GRANULE * GRANULE;
+            end += capacities[pgno];
+        }
+        if (image.length > 0) images.write(offsets[pgno], image);
+        lengths[pgno] = image.length;
+        // pages skipped over read as zeros
+        for (int i = pages; i < pgno; i++)
+            writeEntry(i);
+        pages = Math.max(pages, pgno + 1);
+        writeEntry(pgno);
+    }
+
+    private void writeEntry(int pgno) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(offsets[pgno]).putInt(lengths[pgno]).putInt(capacities[pgno]);
+        table.seek((long) pgno * ENTRY_SIZE);
+        table.write(entry.array());
+    }
+
+    /**
+     * @return the image of the page at off: empty for a page of zeros, the
+     *   page itself if it does not compress
+     */
+    private byte[] compress(byte[] data, int off) {
+        boolean zero = true;
+        for (int i = off; i < off + pageSize && zero; i++)
+            zero = data[i] == 0;
+        if (zero) return new byte[0];
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, off, pageSize);
+            deflater.finish();
+            byte[] out = new byte[pageSize];
+            int len = deflater.deflate(out);
+            if (!deflater.finished() || len >= pageSize)
+                return Arrays.copyOfRange(data, off, off + pageSize);
+            return Arrays.copyOf(out, len);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** @return the number of pages times the page size */
+    public synchronized long length() throws IOException {
+        return (long) pages * pageSize;
+    }
+
+    /** @return the number of bytes the page images take on disk */
+    public synchronized long physicalLength() throws IOException {
+        return images.length();
+    }
+
+    public synchronized void close() throws IOException {
+        images.close();
+        table.close();
+    }
+
+    /**
+     * Write a compressed copy of a file of uncompressed pages, such as the
+     * file of a HeapFile, to a new file.
+     *
+     * @param in the file of uncompressed pages
+     * @param out the file to write; it and its page table must not exist
+     */
+    public static void compress(File in, File out, int pageSize) throws IOException {
+        try (PageIO from = new RafPageIO(in); CompressedPageIO to = new CompressedPageIO(out, pageSize)) {
+            byte[] page = new byte[pageSize];
+            long n = from.length() / pageSize;
+            for (long i = 0; i < n; i++) {
+                from.read(i * pageSize, page);
+                to.write(i * pageSize, page);
+            }
+        }
+    }
+}
@@ -23,7 +23,8 @@ public class Database {
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES,
+                ReplacementPolicy.fromSystemProperty());
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -52,14 +53,22 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it. The new pool uses the replacement policy selected by the
+     * {@link ReplacementPolicy#PROPERTY} system property. Committed pages
+     * the old pool has not written back yet are written first.
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        try {
+            getBufferPool().flushCommittedPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages,
+                    ReplacementPolicy.fromSystemProperty()));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -9,4 +9,8 @@ public class DbException extends Exception {
     public DbException(String s) {
         super(s);
     }
+
+    public DbException(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
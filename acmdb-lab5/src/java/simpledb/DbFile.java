@@ -16,8 +16,10 @@ public interface DbFile {
      * Read the specified page from disk.
      *
      * @throws IllegalArgumentException if the page does not exist in this file.
+     * @throws DbException if the page is corrupt on disk; the cause is the
+     *   {@link ChecksumException} of a page that fails its checksum
      */
-    public Page readPage(PageId id);
+    public Page readPage(PageId id) throws DbException;
 
     /**
      * Push the specified page to disk.
@@ -28,6 +30,30 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages to disk. The pages belong to this file and have
+     * consecutive page numbers in increasing order, so implementations can
+     * write them with a single call.
+     *
+     * @param pages The pages to write.
+     * @throws IOException if the write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) writePage(p);
+    }
+
+    /**
+     * Return the LSN of the given page as last written to disk, without
+     * reading the page. Files that do not keep LSNs return 0, so recovery
+     * redoes every update to their pages.
+     *
+     * @param id The id of the page.
+     * @throws IOException if the LSN cannot be read
+     */
+    public default long getPageLSN(PageId id) throws IOException {
+        return 0;
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how much free space each page of a HeapFile has,
+ * in tuple slots for HeapPages and in bytes for SlottedHeapPages, so that
+ * an insert can go straight to a page with room instead of trying, and
+ * locking, every page before it.
+ * <p>
+ * The map is a hint: the count of a page is updated whenever the HeapFile
+ * changes, reads or writes the page, but may be wrong after an abort or a
+ * crash, so inserts still check the page itself. A page whose count is not
+ * known counts as having room.
+ * <p>
+ * The counts of the pages as written are kept on disk next to the
+ * HeapFile, in a file named like it with ".fsm" appended, as one unsigned
+ * short per page number: 0 when the count is not known, otherwise the
+ * count plus one.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    /** Suffix of the file of counts, appended to the path of the data file. */
+    static final String SUFFIX = ".fsm";
+
+    private static final int UNKNOWN = -1;
+    private static final int MAX_COUNT = 0xfffe;
+
+    private final File file;
+    private RandomAccessFile raf; // null until the file is needed
+    private int[] free = null; // loaded on first use
+    private final BitSet room = new BitSet(); // pages with any room or unknown
+
+    /**
+     * @param dataFile the file of the HeapFile whose pages are mapped
+     */
+    FreeSpaceMap(File dataFile) {
+        file = new File(dataFile.getPath() + SUFFIX);
+    }
+
+    private void load() throws IOException {
+        if (free != null) return;
+        free = new int[0];
+        if (!file.exists()) return;
+        raf = new RandomAccessFile(file, "rw");
+        byte[] data = new byte[(int) raf.length() & ~1];
+        raf.readFully(data);
+        grow(data.length / 2);
+        for (int i = 0; i < data.length / 2; i++) {
+            int v = ((data[2 * i] & 0xff) << 8) | (data[2 * i + 1] & 0xff);
+            set(i, v - 1);
+        }
+    }
+
+    private void grow(int pages) {
+        if (pages <= free.length) return;
+        int old = free.length;
+        free = Arrays.copyOf(free, Math.max(pages, old * 2));
+        Arrays.fill(free, old, free.length, UNKNOWN);
+        room.set(old, free.length);
+    }
+
+    private void set(int pgno, int count) {
+        grow(pgno + 1);
+        free[pgno] = count;
+        room.set(pgno, count != 0);
+    }
+
+    /**
+     * Find the first page at or after from that may have the free space
+     * needed.
+     *
+     * @param numPages the number of pages in the file
+     * @param need the free space needed, at least 1
+     * @return the page number, or -1 if no page from there on has room
+     */
+    synchronized int nextWithRoom(int from, int numPages, int need) throws IOException {
+        load();
+        for (int i = room.nextSetBit(from); ; i = room.nextSetBit(i + 1)) {
+            // pages past the end of the map are not known
+            if (i < 0) i = Math.max(from, free.length);
+            if (i >= numPages) return -1;
+            if (i >= free.length || free[i] == UNKNOWN || free[i] >= need) return i;
+        }
+    }
+
+    /** Record the free space of a page in memory. */
+    synchronized void update(int pgno, int count) throws IOException {
+        load();
+        set(pgno, count);
+    }
+
+    /** Record the free space of a page that was just written. */
+    synchronized void write(int pgno, int count) throws IOException {
+        load();
+        set(pgno, count);
+        if (raf == null) raf = new RandomAccessFile(file, "rw");
+        raf.seek(2L * pgno);
+        raf.writeShort(Math.min(count, MAX_COUNT) + 1);
+    }
+}
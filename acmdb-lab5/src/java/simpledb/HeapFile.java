@@ -9,15 +9,35 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile in the {@link #SLOTTED} format stores its tuples in
+ * SlottedHeapPages instead, which keep strings at their actual length, and
+ * one in the {@link #PAX} format in PaxPages, which keep each column apart
+ * so that a scan can decode only the columns it needs, see
+ * {@link #iterator(TransactionId, boolean[])}.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see simpledb.SlottedHeapPage
+ * @see simpledb.PaxPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** The page format of HeapPage, with fixed-width tuple slots. */
+    public static final String FIXED = "fixed";
+    /** The page format of SlottedHeapPage, with variable-length records. */
+    public static final String SLOTTED = "slotted";
+    /** The page format of PaxPage, with a minipage per column. */
+    public static final String PAX = "pax";
+
     private File file;
     private TupleDesc desc;
-    private RandomAccessFile stream;
+    private final String format;
+    private final PageIO io;
+    private final PageLsns lsns;
+    private final PageChecksums sums;
+    private final FreeSpaceMap fsm;
+    private final PageExtents extents;
     private int pageSize = BufferPool.getPageSize();
 
     /**
@@ -28,14 +48,43 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageIO.defaultKind());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, accessed with
+     * the given kind of page I/O.
+     *
+     * @param ioKind
+     *            the kind of page I/O, see {@link PageIO#open(File, String)}
+     */
+    public HeapFile(File f, TupleDesc td, String ioKind) {
+        this(f, td, ioKind, FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, accessed with
+     * the given kind of page I/O and with pages in the given format.
+     *
+     * @param format
+     *            {@link #FIXED}, {@link #SLOTTED} or {@link #PAX}
+     */
+    public HeapFile(File f, TupleDesc td, String ioKind, String format) {
         // some code goes here
+        if (!format.equals(FIXED) && !format.equals(SLOTTED) && !format.equals(PAX))
+            throw new IllegalArgumentException("unknown page format " + format);
         file = f;
         desc = td;
+        this.format = format;
+        lsns = new PageLsns(f);
+        sums = new PageChecksums(f);
+        fsm = new FreeSpaceMap(f);
         try {
-            stream = new RandomAccessFile(file, "rw");
-        } catch (FileNotFoundException ignored) {
-
+            io = PageIO.open(f, ioKind);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        extents = new PageExtents(io, sums, pageSize);
     }
 
     /**
@@ -48,6 +97,14 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * @return the page format of this HeapFile, {@link #FIXED},
+     *   {@link #SLOTTED} or {@link #PAX}
+     */
+    public String getFormat() {
+        return format;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -73,15 +130,24 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
-    public Page readPage(PageId pid) {
+    public Page readPage(PageId pid) throws DbException {
         // some code goes here
         if (pid instanceof HeapPageId) {
             HeapPageId hpid = (HeapPageId) pid;
             byte[] data = new byte[pageSize];
             try {
-                stream.seek((long) pageSize * pid.pageNumber());
-                stream.read(data);
-                return new HeapPage(hpid, data);
+                // past the end of the file the page reads as empty
+                io.read((long) pageSize * pid.pageNumber(), data);
+                sums.verify(file, pid.pageNumber(), data);
+                HeapFilePage p;
+                if (format.equals(SLOTTED)) p = new SlottedHeapPage(hpid, data, desc);
+                else if (format.equals(PAX)) p = new PaxPage(hpid, data, desc);
+                else p = new HeapPage(hpid, data);
+                p.setLSN(lsns.get(pid.pageNumber()));
+                fsm.update(pid.pageNumber(), p.getFreeSpace());
+                return p;
+            } catch (ChecksumException e) {
+                throw new DbException(e.getMessage(), e);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -93,23 +159,79 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        stream.seek(page.getId().pageNumber() * pageSize);
-        stream.write(page.getPageData(), 0, pageSize);
+        byte[] data = page.getPageData();
+        io.write((long) page.getId().pageNumber() * pageSize, data);
+        sums.set(page.getId().pageNumber(), data, 0, pageSize);
+        lsns.set(page.getId().pageNumber(), page.getLSN());
+        noteWritten(page);
+    }
+
+    private void noteWritten(Page page) throws IOException {
+        extents.written(page.getId().pageNumber());
+        if (page instanceof HeapFilePage)
+            fsm.write(page.getId().pageNumber(), ((HeapFilePage) page).getFreeSpace());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        byte[] data = new byte[pages.size() * pageSize];
+        for (int i = 0; i < pages.size(); i++)
+            System.arraycopy(pages.get(i).getPageData(), 0, data, i * pageSize, pageSize);
+        io.write((long) pages.get(0).getId().pageNumber() * pageSize, data);
+        for (int i = 0; i < pages.size(); i++) {
+            Page p = pages.get(i);
+            sums.set(p.getId().pageNumber(), data, i * pageSize, pageSize);
+            lsns.set(p.getId().pageNumber(), p.getLSN());
+            noteWritten(p);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public long getPageLSN(PageId id) throws IOException {
+        return lsns.get(id.pageNumber());
+    }
+
+    /**
+     * Check every page of this file on disk against the checksum it was
+     * written with, reading the pages in parallel and around the buffer
+     * pool.
+     *
+     * @return the numbers of the pages that are damaged
+     */
+    public List<Integer> scrub() throws IOException {
+        return sums.scrub(numPages(), pgno -> {
+            byte[] data = new byte[pageSize];
+            io.read((long) pageSize * pgno, data);
+            return data;
+        });
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. Pages appended to the
+     * file from outside this HeapFile are counted too.
      */
     public int numPages() {
         // some code goes here
         try {
-            return (int)(stream.length()) / pageSize;
+            return extents.refresh();
         } catch (IOException e) {
             e.printStackTrace();
             return -1;
         }
     }
 
+    /**
+     * @return the number of pages as this HeapFile last knew it, which
+     *   unlike {@link #numPages} does not look at the file
+     */
+    private int knownPages() {
+        try {
+            return extents.count();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private ArrayList<Page> createList(Page p) {
         ArrayList<Page> a = new ArrayList<>();
         a.add(p);
@@ -120,44 +242,78 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        int np = numPages();
-        for (int i = 0; i < np; i++) {
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+        // only pages the free-space map says have room are locked
+        int np = knownPages();
+        int need = format.equals(SLOTTED) ? SlottedHeapPage.spaceFor(t) : 1;
+        for (int i = fsm.nextWithRoom(0, np, need); i >= 0; i = fsm.nextWithRoom(i + 1, np, need)) {
             try {
-                p.insertTuple(t);
-                return createList(p);
+                return createList(modify(tid, new HeapPageId(getId(), i), pg -> pg.insertTuple(t)));
             } catch (DbException e) {
+                // the page was full after all; modify corrected the map
             }
         }
-        writePage(new HeapPage(new HeapPageId(getId(), np), HeapPage.createEmptyPageData()));
-
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), np), Permissions.READ_WRITE);
-        p.insertTuple(t);
-        return createList(p);
+        // a new page reads as empty, and is written when the pool flushes it
+        int pgno = extents.allocate();
+        return createList(modify(tid, new HeapPageId(getId(), pgno), pg -> pg.insertTuple(t)));
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         try {
-            p.deleteTuple(t);
-            return createList(p);
+            return createList(modify(tid, t.getRecordId().getPageId(), pg -> pg.deleteTuple(t)));
         } catch (DbException e) {
         }
-        return createList(p);
+        return createList(Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE));
+    }
+
+    /** A change to a heap page that may fail with a DbException. */
+    private interface PageChange {
+        void apply(HeapFilePage p) throws DbException;
+    }
+
+    /**
+     * Apply a change to a page while it is pinned and latched exclusively,
+     * and mark it dirty before the pin is released so that it cannot be
+     * evicted in between. The free-space map gets the page's free space
+     * whether or not the change succeeds.
+     *
+     * @return the changed page
+     */
+    private HeapFilePage modify(TransactionId tid, PageId pid, PageChange change)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapFilePage p = (HeapFilePage) bp.pinPage(tid, pid, Permissions.READ_WRITE);
+        bp.latchPage(pid, true);
+        try {
+            change.apply(p);
+            p.markDirty(true, tid);
+            return p;
+        } finally {
+            try {
+                fsm.update(pid.pageNumber(), p.getFreeSpace());
+            } catch (IOException e) {
+                // only a hint; the next write of the page records it
+            }
+            bp.unlatchPage(pid, true);
+            bp.unpinPage(tid, pid);
+        }
     }
 
     class It implements DbFileIterator {
 
         int pgn, nxpgn;
-        HeapPage pg, nxpg;
+        HeapFilePage pg, nxpg;
         TransactionId tid;
         Iterator<Tuple> it, nxit;
+        ScanRing ring;
+        ReadAhead readAhead;
+        final boolean[] columns;
 
-        It(TransactionId tid) {
+        It(TransactionId tid, boolean[] columns) {
             this.tid = tid;
+            this.columns = columns;
             close();
         }
 
@@ -169,9 +325,30 @@ public class HeapFile implements DbFile {
         @Override
         public void open() throws DbException, TransactionAbortedException {
             pgn = 0;
-            pg = (HeapPage) Database.getBufferPool()
-                    .getPage(tid, new HeapPageId(getId(), pgn), Permissions.READ_ONLY);
-            it = pg.iterator();
+            ring = Database.getBufferPool().getScanRing(numPages());
+            readAhead = new ReadAhead(ring, (id, page) -> id.pageNumber() + 1 < knownPages()
+                    ? new HeapPageId(getId(), id.pageNumber() + 1) : null);
+            pg = fetch(pgn);
+            it = pg.iterator(columns);
+        }
+
+        /**
+         * Pages read through the pool stay pinned while the iterator is on
+         * them; pages in the ring belong to this iterator anyway.
+         */
+        private HeapFilePage fetch(int pgno) throws DbException, TransactionAbortedException {
+            HeapPageId id = new HeapPageId(getId(), pgno);
+            HeapFilePage p;
+            if (ring == null)
+                p = (HeapFilePage) Database.getBufferPool().pinPage(tid, id, Permissions.READ_ONLY);
+            else
+                p = (HeapFilePage) Database.getBufferPool().getPage(tid, id, Permissions.READ_ONLY, ring);
+            readAhead.moved(p);
+            return p;
+        }
+
+        private void release(HeapFilePage p) {
+            if (p != null && ring == null) Database.getBufferPool().unpinPage(tid, p.getId());
         }
 
         /**
@@ -181,13 +358,17 @@ public class HeapFile implements DbFile {
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (it == null) return false;
             if (it.hasNext()) return true;
-            for (nxpgn = pgn + 1; nxpgn < numPages(); nxpgn++) {
-                if ((nxpg = (HeapPage) Database.getBufferPool()
-                        .getPage(tid, new HeapPageId(getId(), nxpgn), Permissions.READ_ONLY))
-                        == null) return false;
-                if ((nxit = nxpg.iterator()) == null) return false;
-                if (!nxit.hasNext()) continue;
-                return true;
+            if (nxit != null && nxit.hasNext()) return true;
+            release(nxpg);
+            nxpg = null;
+            nxit = null;
+            for (nxpgn = pgn + 1; nxpgn < knownPages(); nxpgn++) {
+                if ((nxpg = fetch(nxpgn)) == null) return false;
+                nxit = nxpg.iterator(columns);
+                if (nxit.hasNext()) return true;
+                release(nxpg);
+                nxpg = null;
+                nxit = null;
             }
             return false;
         }
@@ -204,9 +385,12 @@ public class HeapFile implements DbFile {
             if (it == null) throw new NoSuchElementException();
             if (it.hasNext()) return it.next();
             if (nxpgn <= pgn || nxit == null) throw new NoSuchElementException();
+            release(pg);
             it = nxit;
             pg = nxpg;
             pgn = nxpgn;
+            nxit = null;
+            nxpg = null;
             return it.next();
         }
 
@@ -226,16 +410,33 @@ public class HeapFile implements DbFile {
          */
         @Override
         public void close() {
+            release(pg);
+            release(nxpg);
             pgn = nxpgn = -1;
             pg = nxpg = null;
             it = nxit = null;
+            if (readAhead != null) readAhead.close();
+            readAhead = null;
+            ring = null;
         }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new It(tid);
+        return new It(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that only needs the
+     * given fields of them. In the {@link #PAX} format the other columns
+     * are not decoded and those fields of the tuples are null; in the other
+     * formats every field is set.
+     *
+     * @param columns whether each field is needed, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean[] columns) {
+        return new It(tid, columns);
     }
 
 }
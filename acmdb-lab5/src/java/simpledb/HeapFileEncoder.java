@@ -105,6 +105,7 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    Utility.deleteSidecars(outFile);
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -223,4 +224,93 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file, in the format described in
+   * {@link #convert(File, File, int, int, Type[], char)}, into a binary
+   * file of SlottedHeapPages, for a HeapFile in the
+   * {@link HeapFile#SLOTTED} format.
+   *
+   * @see SlottedHeapPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @param fieldSeparator the character between the fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertSlotted(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator) throws IOException {
+    convertPages(inFile, outFile, typeAr, fieldSeparator, HeapFile.SLOTTED);
+  }
+
+  /** Convert the specified input text file, in the format described in
+   * {@link #convert(File, File, int, int, Type[], char)}, into a binary
+   * file of PaxPages, for a HeapFile in the {@link HeapFile#PAX} format.
+   *
+   * @see PaxPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @param fieldSeparator the character between the fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertPax(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator) throws IOException {
+    convertPages(inFile, outFile, typeAr, fieldSeparator, HeapFile.PAX);
+  }
+
+  private static HeapFilePage emptyPage(int pgno, TupleDesc td, String format) throws IOException {
+    HeapPageId id = new HeapPageId(0, pgno);
+    if (format.equals(HeapFile.SLOTTED))
+        return new SlottedHeapPage(id, SlottedHeapPage.createEmptyPageData(), td);
+    return new PaxPage(id, PaxPage.createEmptyPageData(), td);
+  }
+
+  /** Fill pages of the given HeapFile format with the tuples of inFile. */
+  private static void convertPages(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator, String format) throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    Utility.deleteSidecars(outFile);
+    FileOutputStream os = new FileOutputStream(outFile);
+    int npages = 0;
+    HeapFilePage page = emptyPage(npages, td, format);
+    boolean empty = true;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.trim().isEmpty())
+            continue;
+        String[] fields = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        if (fields.length != typeAr.length)
+            throw new IOException("malformed line: " + line);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < typeAr.length; i++) {
+            String f = fields[i].trim();
+            try {
+                t.setField(i, typeAr[i] == Type.INT_TYPE ? new IntField(Integer.parseInt(f))
+                        : new StringField(f, Type.STRING_LEN));
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed line: " + line);
+            }
+        }
+        int need = format.equals(HeapFile.SLOTTED) ? SlottedHeapPage.spaceFor(t) : 1;
+        if (need > page.getFreeSpace()) {
+            os.write(page.getPageData());
+            npages++;
+            page = emptyPage(npages, td, format);
+        }
+        try {
+            page.insertTuple(t);
+        } catch (DbException e) {
+            throw new IOException(e);
+        }
+        empty = false;
+    }
+    // an empty file still gets an empty page, like convert does
+    if (!empty || npages == 0)
+        os.write(page.getPageData());
+    br.close();
+    os.close();
+  }
 }
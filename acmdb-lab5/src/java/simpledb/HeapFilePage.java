@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * HeapFilePage is a page of a HeapFile. A HeapFile stores its tuples in
+ * fixed-width slots ({@link HeapPage}), in slotted pages with
+ * variable-length records ({@link SlottedHeapPage}) or column by column
+ * ({@link PaxPage}); this is what HeapFile needs from all of them.
+ */
+public interface HeapFilePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     *
+     * @throws DbException if the page has no room for the tuple
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * @param columns whether each field is needed, or null for all of them
+     * @return an iterator over all tuples on this page; the fields that are
+     *   not needed may be left null
+     */
+    default Iterator<Tuple> iterator(boolean[] columns) {
+        return iterator();
+    }
+
+    /**
+     * @return the tuple in the given slot, or null if the slot is empty
+     */
+    default Tuple getTuple(int slot) {
+        for (Iterator<Tuple> it = iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            if (t.getRecordId().tupleno() == slot) return t;
+        }
+        return null;
+    }
+
+    /**
+     * @return the free space on this page: the number of empty slots of a
+     *   HeapPage or a PaxPage, the number of free bytes of a SlottedHeapPage
+     */
+    int getFreeSpace();
+}
@@ -2,25 +2,43 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page keeps its bytes in a ByteBuffer, in the on-disk format, rather
+ * than as Tuple objects. Tuples are created when they are first asked for
+ * and their fields are decoded when first read (see {@link LazyTuple}), so
+ * reading a page allocates little, and getPageData and setBeforeImage
+ * do not serialize anything. The buffer is copy-on-write: once it is
+ * shared with the before image, a caller or a handed-out tuple, the page
+ * copies it before changing it.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+    private final int[] fieldOffsets;
 
-    byte[] oldData;
+    // the page in its on-disk format: header bytes, then the slots
+    private ByteBuffer data;
+    // whether data may be referenced outside this page
+    private boolean shared;
+
+    ByteBuffer oldData;
     private final Byte oldDataLock=new Byte((byte)0);
+    private volatile long lsn = 0;
+    private long oldLsn = 0;
     private boolean dirty = false;
     private TransactionId dirtyID = null;
 
@@ -36,30 +54,37 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page does not copy data, and never changes it.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer, heap or direct, holding a page in
+     * the format described in {@link #HeapPage(HeapPageId, byte[])} from
+     * index 0. The page does not copy the buffer, and never changes it;
+     * the caller must not change it either.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        if (data.capacity() < BufferPool.getPageSize())
+            throw new IOException("page data is " + data.capacity() + " bytes");
+        this.data = data;
+        this.shared = true;
+
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -87,12 +112,16 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
+            long oldLsnRef;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                oldLsnRef = oldLsn;
             }
-            return new HeapPage(pid,oldDataRef);
+            HeapPage p = new HeapPage(pid,oldDataRef);
+            p.setLSN(oldLsnRef);
+            return p;
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -104,7 +133,10 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // no copy: the buffer is copied before it is next changed
+        oldData = data;
+        shared = true;
+        oldLsn = lsn;
         }
     }
 
@@ -117,39 +149,31 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in a used slot, creating it if it was not asked for
+     * before.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new LazyTuple(td, data, headerSize + slotId * tupleSize, fieldOffsets);
+            t.setRecordId(new RecordId(pid, slotId));
+            shared = true;
+            tuples[slotId] = t;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
+    /** Make data private to this page before changing it. */
+    private void beforeWrite() {
+        if (!shared) return;
+        ByteBuffer copy = ByteBuffer.allocate(BufferPool.getPageSize());
+        ByteBuffer src = data.duplicate();
+        src.clear().limit(BufferPool.getPageSize());
+        copy.put(src);
+        data = copy;
+        shared = false;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -162,64 +186,11 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] out = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.get(out);
+        return out;
     }
 
     /**
@@ -247,7 +218,12 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         if (t.getRecordId().getPageId() != getId() || t.getRecordId().tupleno() >= numSlots || !isSlotUsed(t.getRecordId().tupleno())) throw new DbException("non existing");
-        markSlotUsed(t.getRecordId().tupleno(), false);
+        int slot = t.getRecordId().tupleno();
+        beforeWrite();
+        markSlotUsed(slot, false);
+        int off = headerSize + slot * tupleSize;
+        for (int i = 0; i < tupleSize; i++) data.put(off + i, (byte) 0);
+        tuples[slot] = null;
     }
 
     /**
@@ -261,6 +237,19 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         for (int i = 0; i < numSlots; i++) if (!isSlotUsed(i)) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                throw new DbException("could not serialize tuple: " + e.getMessage());
+            }
+            beforeWrite();
+            ByteBuffer dst = data.duplicate();
+            dst.position(headerSize + i * tupleSize);
+            dst.put(baos.toByteArray(), 0, tupleSize);
             tuples[i] = t;
             markSlotUsed(i, true);
             t.setRecordId(new RecordId(getId(), i));
@@ -289,14 +278,29 @@ public class HeapPage implements Page {
         return dirty ? dirtyID : null;
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int ret = 0;
-        for (int i = 0; i < numSlots; i++) ret += isSlotUsed(i) ? 0 : 1;
-        return ret;
+        int used = 0;
+        for (int i = 0; i < numSlots >> 3; i++)
+            used += Integer.bitCount(data.get(i) & 0xff);
+        for (int i = numSlots & ~7; i < numSlots; i++)
+            used += isSlotUsed(i) ? 1 : 0;
+        return numSlots - used;
+    }
+
+    public int getFreeSpace() {
+        return getNumEmptySlots();
     }
 
     /**
@@ -304,7 +308,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        return (header[i >> 3] & (1 << (i & 7))) > 0;
+        return (data.get(i >> 3) & (1 << (i & 7))) != 0;
     }
 
     /**
@@ -313,8 +317,10 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        if (value) header[i >> 3] |= (1 << (i & 7));
-        else header[i >> 3] &= (~(1 << (i & 7)));
+        byte b = data.get(i >> 3);
+        if (value) b |= (1 << (i & 7));
+        else b &= (~(1 << (i & 7)));
+        data.put(i >> 3, b);
     }
 
     class TupleIterator implements Iterator<Tuple> {
@@ -324,7 +330,7 @@ public class HeapPage implements Page {
 
         TupleIterator(int i) {
             for (int j = i + 1; j < numSlots; j++) if (isSlotUsed(j)) {
-                nxt = tuples[j];
+                nxt = tupleAt(j);
                 nid = j;
                 break;
             }
@@ -340,7 +346,7 @@ public class HeapPage implements Page {
             Tuple _nxt = nxt;
             nxt = null;
             for (int j = nid + 1; j < numSlots; j++) if (isSlotUsed(j)) {
-                nxt = tuples[j];
+                nxt = tupleAt(j);
                 nid = j;
                 break;
             }
@@ -349,6 +355,11 @@ public class HeapPage implements Page {
 
     }
 
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) return null;
+        return tupleAt(slot);
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexJoin operator implements the relational join as an index
+ * nested-loops join: for each tuple of the outer relation it searches the
+ * B+ tree of the inner relation for the tuples that join with it, instead
+ * of reading the whole inner relation again.
+ * <p>
+ * The inner child must be a scan of a {@link BTreeFile} whose key field is
+ * the join field, possibly under {@link Filter}s (see {@link #canProbe}).
+ * The tuples the search returns are checked against the predicates of the
+ * filters and of the scan, so the join returns the same tuples as a
+ * {@link Join} of the same children; the inner child itself is not read.
+ */
+public class IndexJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BTreeFile file;
+    private final TransactionId tid;
+    /** the predicates of the inner child that the search does not apply */
+    private final ArrayList<Predicate> residual = new ArrayList<Predicate>();
+    private transient DbFileIterator probe = null;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join, which
+     *            {@link #canProbe} must accept
+     * @throws IllegalArgumentException if the inner relation cannot be
+     *         searched for the join field
+     */
+    public IndexJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        super(p, child1, child2);
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("no index on the join field of the inner relation");
+        DbIterator inner = child2;
+        while (inner instanceof Filter) {
+            residual.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId(inner));
+        if (inner instanceof BTreeScan) {
+            tid = ((BTreeScan) inner).getTransactionId();
+            IndexPredicate ipred = ((BTreeScan) inner).getIndexPredicate();
+            if (ipred != null)
+                residual.add(new Predicate(file.keyField(), ipred.getOp(), ipred.getField()));
+        } else {
+            tid = ((SeqScan) inner).getTransactionId();
+        }
+    }
+
+    /**
+     * @return the id of the table a SeqScan or BTreeScan reads, or null for
+     *         other iterators
+     */
+    private static Integer tableId(DbIterator scan) {
+        if (scan instanceof BTreeScan) return ((BTreeScan) scan).getTableId();
+        if (scan instanceof SeqScan) return ((SeqScan) scan).getTableId();
+        return null;
+    }
+
+    /**
+     * @return whether an IndexJoin can join with the given predicate on the
+     *         given inner relation: a SeqScan or BTreeScan of a BTreeFile
+     *         under zero or more Filters, whose key field is the join field,
+     *         with an operator the index can search for
+     */
+    public static boolean canProbe(JoinPredicate p, DbIterator child2) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS || p.getOperator() == Predicate.Op.LIKE)
+            return false;
+        while (child2 instanceof Filter)
+            child2 = ((Filter) child2).getChildren()[0];
+        Integer tableid = tableId(child2);
+        if (tableid == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2();
+    }
+
+    /**
+     * @return the operator that compares the inner key to the outer field as
+     *         the join predicate compares the outer field to the inner key
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * @return only the outer child: the inner child is searched through
+     *         the index, and never opened
+     */
+    @Override
+    protected DbIterator[] readChildren() {
+        return new DbIterator[]{children[0]};
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        closeProbe();
+        t1 = t2 = null;
+    }
+
+    private void closeProbe() {
+        if (probe != null) probe.close();
+        probe = null;
+    }
+
+    @Override
+    protected boolean safecheck() {
+        if (!super.safecheck()) return false;
+        for (Predicate r : residual)
+            if (!r.filter(t2)) return false;
+        return true;
+    }
+
+    /**
+     * Advance to the next inner tuple that the search for the current outer
+     * tuple returns, searching the index for the next outer tuple when the
+     * search is exhausted.
+     */
+    @Override
+    protected boolean nx() throws TransactionAbortedException, DbException {
+        while (probe == null || !probe.hasNext()) {
+            closeProbe();
+            if (!children[0].hasNext()) return false;
+            t1 = children[0].next();
+            probe = file.indexIterator(tid,
+                    new IndexPredicate(reverse(p.getOperator()), t1.getField(p.getField1())));
+            probe.open();
+        }
+        t2 = probe.next();
+        return true;
+    }
+}
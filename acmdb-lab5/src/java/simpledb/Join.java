@@ -63,24 +63,32 @@ public class Join extends Operator {
         return TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
     }
 
+    /**
+     * @return the children this join reads, which it opens, closes and
+     *         rewinds along with itself; both of them for a Join
+     */
+    protected DbIterator[] readChildren() {
+        return children;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         super.open();
-        for (DbIterator c: children) c.open();
+        for (DbIterator c: readChildren()) c.open();
     }
 
     public void close() {
         // some code goes here
         super.close();
-        for (DbIterator c: children) c.close();
+        for (DbIterator c: readChildren()) c.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         super.close();
         super.open();
-        for (DbIterator c: children) c.rewind();
+        for (DbIterator c: readChildren()) c.rewind();
     }
 
 
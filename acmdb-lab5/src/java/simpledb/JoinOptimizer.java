@@ -70,7 +70,10 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (IndexJoin.canProbe(p, plan2))
+            j = new IndexJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -104,6 +107,20 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, null);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)} does, considering an {@link IndexJoin} too
+     * when the right-hand side is a base table.
+     *
+     * @param stats2
+     *            The TableStats of the table on the right-hand side, or null
+     *            if the right-hand side is the result of other joins
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, TableStats stats2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
@@ -113,11 +130,37 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            if (j.p == Predicate.Op.EQUALS) return cost1 + cost2 + card1 * card2;
-            else return cost1 + cost1 * card2 + card1 * card2;
+            double cost;
+            if (j.p == Predicate.Op.EQUALS) cost = cost1 + cost2 + card1 * card2;
+            else cost = cost1 + cost1 * card2 + card1 * card2;
+            if (stats2 != null)
+                cost = Math.min(cost, estimateIndexJoinCost(j, card1, card2, cost1, stats2));
+            return cost;
         }
     }
 
+    /**
+     * Estimate the cost of an {@link IndexJoin}: one scan of the left-hand
+     * side, and for each of its tuples a search of the index of the
+     * right-hand table for the tuples that join with it. An equality join
+     * is taken to find one tuple per search, and other joins the fraction
+     * of the tuples that {@link #estimateTableJoinCardinality} assumes.
+     *
+     * @return the cost, or infinity if the right-hand table has no index on
+     *         the join field
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, TableStats stats2) {
+        if (j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+            return Double.POSITIVE_INFINITY;
+        DbFile f = Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias));
+        if (!(f instanceof BTreeFile) || !j.f2PureName.equals(
+                f.getTupleDesc().getFieldName(((BTreeFile) f).keyField())))
+            return Double.POSITIVE_INFINITY;
+        double sel = j.p == Predicate.Op.EQUALS ? 1.0 / Math.max(card2, 1) : 0.3;
+        return cost1 + card1 * stats2.estimateIndexScanCost(sel) + card1 * card2 * sel;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -230,6 +273,7 @@ public class JoinOptimizer {
         //Not necessary for labs 1--3
 
         // some code goes here
+        if (joins.isEmpty()) return joins;
         for (int i = 1; i <= joins.size(); i++) {
             for (Set<LogicalJoinNode> s: enumerateSubsets(joins, i)) {
                 Vector<LogicalJoinNode> bestPlan = null;
@@ -311,6 +355,9 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // the stats of each side that is a base table, whose index may be
+        // searched by an IndexJoin
+        TableStats t1stats = null, t2stats = null;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -326,6 +373,8 @@ public class JoinOptimizer {
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias == null ? false : isPkey(table2Alias,
                     j.f2PureName);
+            t1stats = stats.get(table1Name);
+            t2stats = table2Alias == null ? null : stats.get(table2Name);
         } else {
             // news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -354,6 +403,7 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
                         j.f2PureName);
+                t2stats = j.t2Alias == null ? null : stats.get(table2Name);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
@@ -366,7 +416,7 @@ public class JoinOptimizer {
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
+                t1stats = stats.get(table1Name);
             } else {
                 // don't consider this plan if one of j.t1 or j.t2
                 // isn't a table joined in prevBest (cross product)
@@ -375,10 +425,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2stats);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1stats);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
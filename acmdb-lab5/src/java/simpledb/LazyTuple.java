@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * LazyTuple is a tuple read from a HeapPage whose fields are decoded from
+ * the page's bytes the first time they are asked for, so a scan that only
+ * looks at some fields does not create the others. The page never changes
+ * the bytes a LazyTuple reads from; it copies its buffer before modifying
+ * it (see {@link HeapPage}).
+ */
+class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ByteBuffer data;
+    private final int offset;
+    private final int[] fieldOffsets;
+
+    /**
+     * @param td the schema of the tuple
+     * @param data the buffer holding the tuple, which must not change
+     * @param offset the offset of the tuple in data
+     * @param fieldOffsets the offset of each field within the tuple
+     */
+    LazyTuple(TupleDesc td, ByteBuffer data, int offset, int[] fieldOffsets) {
+        super(td);
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && data != null) {
+            f = getTupleDesc().getFieldType(i).parse(data, offset + fieldOffsets[i]);
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    /** Decode every field that has not been decoded yet. */
+    private void materialize() {
+        if (data == null) return;
+        for (int i = 0; i < fieldOffsets.length; i++) getField(i);
+        data = null;
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        materialize();
+        return super.fields();
+    }
+
+    @Override
+    public String toString() {
+        materialize();
+        return super.toString();
+    }
+
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        data = null;
+        super.resetTupleDesc(td);
+    }
+
+    private Object writeReplace() {
+        materialize();
+        Tuple t = new Tuple(getTupleDesc());
+        t.setRecordId(getRecordId());
+        for (int i = 0; i < fieldOffsets.length; i++) t.setField(i, super.getField(i));
+        return t;
+    }
+}
@@ -0,0 +1,499 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps the page-level shared / exclusive locks used by the
+ * BufferPool for strict two-phase locking.
+ * <p>
+ * The lock table is split into stripes by page id, each guarded by its own
+ * latch, so transactions locking unrelated pages do not contend. A request
+ * that cannot be granted is appended to the FIFO wait queue of its page and
+ * the requesting thread sleeps on its own {@link Condition} until a release
+ * makes the request grantable. Lock upgrades (shared to exclusive by the
+ * only other holder) go to the front of the queue. Several threads may
+ * request locks for the same transaction at once, each blocking on a
+ * request of its own.
+ * <p>
+ * Deadlocks are handled according to a {@link DeadlockPolicy}; the policy,
+ * the {@link VictimSelection} and the detector interval of the LockManager
+ * created by the BufferPool can be chosen with the system properties
+ * <code>simpledb.DeadlockPolicy</code>, <code>simpledb.DeadlockVictim</code>
+ * and <code>simpledb.DeadlockInterval</code> (milliseconds).
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Number of stripes of the lock table. */
+    public static final int STRIPES = 16;
+
+    /** Default interval of the background deadlock detector, in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 20;
+
+    /** How deadlocks are prevented or resolved. */
+    public enum DeadlockPolicy {
+        /** check for a cycle through the requester whenever a request blocks */
+        DETECT_ON_WAIT,
+        /** a background detector looks for cycles at a fixed interval */
+        BACKGROUND,
+        /** an older requester waits for a younger holder, a younger requester aborts */
+        WAIT_DIE,
+        /** an older requester aborts younger holders, a younger requester waits */
+        WOUND_WAIT;
+
+        static DeadlockPolicy forName(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /** Which transaction of a deadlock cycle is aborted. */
+    public enum VictimSelection {
+        /** the transaction whose wait closed the cycle */
+        REQUESTER,
+        /** the transaction that started last */
+        YOUNGEST,
+        /** the transaction holding the fewest locks (youngest on ties) */
+        FEWEST_LOCKS;
+
+        static VictimSelection forName(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /** Shared scheduler running the background detectors of all lock managers. */
+    private static final ScheduledExecutorService detector =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-deadlock-detector");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** A queued lock request. */
+    private static class Request {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        final Condition ready;
+        boolean granted = false;
+
+        Request(TransactionId tid, PageId pid, Permissions perm, Condition ready) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            this.ready = ready;
+        }
+    }
+
+    /** Lock state of one page: its holders and its wait queue. */
+    private static class LockState {
+        final HashSet<TransactionId> shared = new HashSet<>();
+        TransactionId exclusive = null;
+        final ArrayDeque<Request> waiting = new ArrayDeque<>();
+
+        boolean holds(TransactionId tid, Permissions perm) {
+            if (tid.equals(exclusive)) return true;
+            return perm == Permissions.READ_ONLY && shared.contains(tid);
+        }
+
+        boolean compatible(TransactionId tid, Permissions perm) {
+            if (exclusive != null) return exclusive.equals(tid);
+            if (perm == Permissions.READ_ONLY) return true;
+            return shared.isEmpty() || (shared.size() == 1 && shared.contains(tid));
+        }
+
+        void grant(TransactionId tid, Permissions perm) {
+            if (perm == Permissions.READ_WRITE) {
+                shared.remove(tid);
+                exclusive = tid;
+            } else if (!tid.equals(exclusive)) {
+                shared.add(tid);
+            }
+        }
+
+        void release(TransactionId tid) {
+            if (tid.equals(exclusive)) exclusive = null;
+            shared.remove(tid);
+        }
+
+        boolean isFree() {
+            return exclusive == null && shared.isEmpty() && waiting.isEmpty();
+        }
+
+        /** The transactions the given queued request is waiting for. */
+        Set<TransactionId> blockers(Request r) {
+            HashSet<TransactionId> ret = new HashSet<>();
+            if (exclusive != null && !exclusive.equals(r.tid)) ret.add(exclusive);
+            if (r.perm == Permissions.READ_WRITE) ret.addAll(shared);
+            for (Request w : waiting) {
+                if (w == r) break;
+                if (r.perm == Permissions.READ_WRITE || w.perm == Permissions.READ_WRITE)
+                    ret.add(w.tid);
+            }
+            ret.remove(r.tid);
+            return ret;
+        }
+    }
+
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final HashMap<PageId, LockState> locks = new HashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held = new ConcurrentHashMap<>();
+
+    private final DeadlockPolicy deadlockPolicy;
+    private final VictimSelection victimSelection;
+    private final long interval;
+
+    private final WaitsForGraph graph = new WaitsForGraph();
+    /** the requests each blocked transaction is waiting on */
+    private final ConcurrentHashMap<TransactionId, Set<Request>> waiters = new ConcurrentHashMap<>();
+    /** transactions chosen as victims, mapped to when their deadlock was found */
+    private final ConcurrentHashMap<TransactionId, Long> victims = new ConcurrentHashMap<>();
+    private final AtomicBoolean detectorScheduled = new AtomicBoolean(false);
+    private volatile long searchedVersion = -1;
+
+    private final AtomicLong deadlocks = new AtomicLong(0);
+    private final AtomicLong aborts = new AtomicLong(0);
+    private final AtomicLong abortLatency = new AtomicLong(0);
+
+    /**
+     * Creates a LockManager configured by the system properties described
+     * in the class comment; by default deadlocks are found by a background
+     * detector that aborts the youngest transaction of each cycle.
+     */
+    public LockManager() {
+        this(DeadlockPolicy.forName(System.getProperty("simpledb.DeadlockPolicy", "background")),
+                VictimSelection.forName(System.getProperty("simpledb.DeadlockVictim", "youngest")),
+                Long.parseLong(System.getProperty("simpledb.DeadlockInterval", "" + DEFAULT_INTERVAL)));
+    }
+
+    /**
+     * @param deadlockPolicy how deadlocks are handled
+     * @param victimSelection which transaction of a cycle is aborted; not
+     *   used by WAIT_DIE and WOUND_WAIT
+     * @param interval the interval of the background detector in
+     *   milliseconds; only used by BACKGROUND
+     */
+    public LockManager(DeadlockPolicy deadlockPolicy, VictimSelection victimSelection, long interval) {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+        this.deadlockPolicy = deadlockPolicy;
+        this.victimSelection = victimSelection;
+        this.interval = interval;
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        return stripes[(pid.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private Set<PageId> heldBy(TransactionId tid) {
+        return held.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet());
+    }
+
+    private int lockCount(TransactionId tid) {
+        Set<PageId> pids = held.get(tid);
+        return pids == null ? 0 : pids.size();
+    }
+
+    /** @return true if a was started before b */
+    private static boolean olderThan(TransactionId a, TransactionId b) {
+        return a.getId() < b.getId();
+    }
+
+    /**
+     * Acquire a lock on a page on behalf of a transaction, blocking until
+     * the lock can be granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive lock
+     * @throws TransactionAbortedException if the transaction was chosen to be
+     *   aborted to prevent or resolve a deadlock
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        checkVictim(tid);
+        Stripe s = stripeFor(pid);
+        s.latch.lock();
+        try {
+            LockState st = s.locks.computeIfAbsent(pid, p -> new LockState());
+            if (st.holds(tid, perm)) return;
+
+            boolean upgrade = st.shared.contains(tid);
+            if ((upgrade || st.waiting.isEmpty()) && st.compatible(tid, perm)) {
+                st.grant(tid, perm);
+                heldBy(tid).add(pid);
+                return;
+            }
+
+            Request r = new Request(tid, pid, perm, s.latch.newCondition());
+            if (upgrade) st.waiting.addFirst(r);
+            else st.waiting.addLast(r);
+            waiters.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(r);
+            try {
+                while (!r.granted) {
+                    block(r, st.blockers(r));
+                    if (r.granted) break;
+                    r.ready.awaitUninterruptibly();
+                }
+            } finally {
+                waiters.computeIfPresent(tid, (t, rs) -> rs.remove(r) && rs.isEmpty() ? null : rs);
+                graph.removeWaiter(tid, r);
+                if (!r.granted) {
+                    st.waiting.remove(r);
+                    grantWaiters(st);
+                    if (st.isFree()) s.locks.remove(pid);
+                }
+            }
+            heldBy(tid).add(pid);
+        } finally {
+            s.latch.unlock();
+        }
+    }
+
+    /**
+     * Called with the stripe latch held each time a request is about to
+     * sleep. Updates the waits-for graph and applies the deadlock policy.
+     */
+    private void block(Request r, Set<TransactionId> blockers) throws TransactionAbortedException {
+        checkVictim(r.tid);
+        switch (deadlockPolicy) {
+        case WAIT_DIE:
+            for (TransactionId b : blockers)
+                if (olderThan(b, r.tid)) {
+                    deadlocks.incrementAndGet();
+                    abortSelf(r.tid, System.nanoTime());
+                }
+            break;
+        case WOUND_WAIT:
+            for (TransactionId b : blockers)
+                if (olderThan(r.tid, b)) wound(b, System.nanoTime());
+            break;
+        default:
+            break;
+        }
+        graph.setWaiting(r.tid, r, blockers);
+        if (deadlockPolicy == DeadlockPolicy.DETECT_ON_WAIT) {
+            List<TransactionId> cycle = graph.findCycleThrough(r.tid);
+            if (cycle != null) {
+                deadlocks.incrementAndGet();
+                resolve(cycle, r.tid, System.nanoTime());
+                checkVictim(r.tid);
+            }
+        } else if (deadlockPolicy == DeadlockPolicy.BACKGROUND) {
+            scheduleDetector();
+        }
+    }
+
+    /**
+     * Throw if tid has been chosen as a deadlock victim. The mark stays
+     * until the transaction completes, so every thread working for it
+     * aborts.
+     */
+    private void checkVictim(TransactionId tid) throws TransactionAbortedException {
+        Long found = victims.get(tid);
+        if (found != null) abortSelf(tid, found);
+    }
+
+    private void abortSelf(TransactionId tid, long found) throws TransactionAbortedException {
+        aborts.incrementAndGet();
+        abortLatency.addAndGet(System.nanoTime() - found);
+        throw new TransactionAbortedException();
+    }
+
+    /** Pick and abort the victim of a cycle. */
+    private void resolve(List<TransactionId> cycle, TransactionId requester, long found) {
+        TransactionId victim = null;
+        for (TransactionId t : cycle) {
+            if (victim == null) {
+                victim = t;
+                continue;
+            }
+            switch (victimSelection) {
+            case REQUESTER:
+                if (graph.waitingSince(t) > graph.waitingSince(victim)) victim = t;
+                break;
+            case FEWEST_LOCKS:
+                int n = lockCount(t), m = lockCount(victim);
+                if (n < m || (n == m && olderThan(victim, t))) victim = t;
+                break;
+            default:
+                if (olderThan(victim, t)) victim = t;
+                break;
+            }
+        }
+        if (victimSelection == VictimSelection.REQUESTER && requester != null) victim = requester;
+        wound(victim, found);
+    }
+
+    /**
+     * Mark a transaction as a victim and wake its requests that are waiting
+     * for a lock; it aborts the next time it checks. The wakeup is done on the
+     * detector thread so that no two stripe latches are ever held at once.
+     */
+    private void wound(final TransactionId tid, long found) {
+        if (victims.putIfAbsent(tid, found) != null) return;
+        detector.execute(() -> wake(tid));
+    }
+
+    private void wake(TransactionId tid) {
+        Set<Request> rs = waiters.get(tid);
+        if (rs == null) return;
+        for (Request r : rs) {
+            Stripe s = stripeFor(r.pid);
+            s.latch.lock();
+            try {
+                r.ready.signal();
+            } finally {
+                s.latch.unlock();
+            }
+        }
+    }
+
+    private void scheduleDetector() {
+        if (detectorScheduled.compareAndSet(false, true))
+            detector.schedule(this::detect, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One run of the background detector. The detector keeps running while
+     * edges are being added to the graph and stops once a search finds the
+     * graph unchanged; the next blocked request schedules it again.
+     */
+    private void detect() {
+        long version = graph.getVersion();
+        if (version == searchedVersion) {
+            detectorScheduled.set(false);
+            // an edge may have been added after the version was read
+            if (graph.getVersion() != version) scheduleDetector();
+            return;
+        }
+        searchedVersion = version;
+        long found = System.nanoTime();
+        HashSet<TransactionId> skip = new HashSet<>(victims.keySet());
+        List<List<TransactionId>> cycles;
+        while (!(cycles = graph.findCycles(skip)).isEmpty()) {
+            for (List<TransactionId> cycle : cycles) {
+                deadlocks.incrementAndGet();
+                resolve(cycle, null, found);
+            }
+            skip.addAll(victims.keySet());
+        }
+        detector.schedule(this::detect, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Grant queued requests in FIFO order while they are compatible with the
+     * current holders, then wake the remaining waiters so they can refresh
+     * their waits-for edges. Must be called with the stripe latch held.
+     */
+    private void grantWaiters(LockState st) {
+        while (!st.waiting.isEmpty()) {
+            Request r = st.waiting.peekFirst();
+            if (!st.compatible(r.tid, r.perm)) break;
+            st.waiting.pollFirst();
+            st.grant(r.tid, r.perm);
+            r.granted = true;
+            r.ready.signal();
+        }
+        for (Request r : st.waiting) r.ready.signal();
+    }
+
+    /**
+     * Release the lock a transaction holds on a page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Stripe s = stripeFor(pid);
+        s.latch.lock();
+        try {
+            LockState st = s.locks.get(pid);
+            if (st != null) {
+                st.release(tid);
+                grantWaiters(st);
+                if (st.isFree()) s.locks.remove(pid);
+            }
+        } finally {
+            s.latch.unlock();
+        }
+        Set<PageId> pids = held.get(tid);
+        if (pids != null) pids.remove(pid);
+    }
+
+    /**
+     * Release every lock held by a transaction. Called when the transaction
+     * completes, which also clears its victim mark.
+     */
+    public void releaseAll(TransactionId tid) {
+        victims.remove(tid);
+        Set<PageId> pids = held.remove(tid);
+        if (pids == null) return;
+        for (PageId pid : pids) release(tid, pid);
+    }
+
+    /** @return true if the transaction holds a lock (of either kind) on the page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return holds(tid, pid, Permissions.READ_ONLY);
+    }
+
+    /** @return true if the transaction holds an exclusive lock on the page */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        return holds(tid, pid, Permissions.READ_WRITE);
+    }
+
+    private boolean holds(TransactionId tid, PageId pid, Permissions perm) {
+        Stripe s = stripeFor(pid);
+        s.latch.lock();
+        try {
+            LockState st = s.locks.get(pid);
+            return st != null && st.holds(tid, perm);
+        } finally {
+            s.latch.unlock();
+        }
+    }
+
+    /** @return a snapshot of the pages a transaction holds locks on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = held.get(tid);
+        return pids == null ? new HashSet<PageId>() : new HashSet<PageId>(pids);
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    public VictimSelection getVictimSelection() {
+        return victimSelection;
+    }
+
+    /**
+     * @return the number of deadlocks found (WAIT_DIE: the number of
+     *   requests that died instead of waiting)
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** @return the number of lock requests aborted by the deadlock policy */
+    public long getAbortCount() {
+        return aborts.get();
+    }
+
+    /**
+     * @return the average time in milliseconds between finding a deadlock
+     *   and the victim's lock request being aborted
+     */
+    public double getAverageAbortLatency() {
+        long n = aborts.get();
+        return n == 0 ? 0 : abortLatency.get() / 1e6 / n;
+    }
+}
@@ -4,6 +4,14 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -32,6 +40,28 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+Forcing the log is the dominant cost of a commit, so commits share
+forces. A committing thread appends its record and then waits, without
+holding the lock on this object, for the next force. Forces are done by
+a single flusher thread, which waits up to the group commit delay for
+more records and then forces all of them at once. {@link #force()} works
+the same way, except when it is called while the caller holds the lock
+on this object: then it forces directly.
+
+<u> Log sequence numbers: </u>
+<p>
+
+The LSN of a position in the log is its offset plus the number of bytes
+truncated from the front of the log before it, so LSNs only grow, across
+truncations and restarts. The LSN of a record is the LSN of its end.
+{@link #logWrite} sets the LSN of the after image to the LSN of the
+update record; the BufferPool forces the log up to a page's LSN before
+writing the page, and recovery does not redo records that are not newer
+than the page on disk.
 */
 
 /**
@@ -42,6 +72,9 @@ must not be declared synchronized and must begin with a block like:
 <li> The first long integer of the file represents the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
+<li> The second long integer is the LSN of offset 0, that is the number
+of bytes truncated from the log over its lifetime
+
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
@@ -86,13 +119,33 @@ public class LogFile {
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    /** Offset of the first record; the header holds the checkpoint offset and the LSN base. */
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
 
     long currentOffset = -1;//protected by this
+    long lsnBase = 0; //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** System property with the group commit delay in milliseconds. */
+    public static final String GROUP_COMMIT_DELAY_PROPERTY = "simpledb.GroupCommitDelay";
+
+    private static final ScheduledExecutorService flusher =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "simpledb-log-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private volatile long groupCommitDelay = Long.getLong(GROUP_COMMIT_DELAY_PROPERTY, 0);
+    // completed by the force that covers every record appended so far
+    private CompletableFuture<Void> nextForce = new CompletableFuture<Void>(); //protected by this
+    private boolean flushScheduled = false; //protected by this
+    private final AtomicLong forces = new AtomicLong(0);
+    private final AtomicLong durableLsn = new AtomicLong(0);
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -127,9 +180,16 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
+            // pages on disk may carry LSNs of the old log, so keep
+            // counting from its end
+            if (raf.length() >= HEADER_SIZE) {
+                raf.seek(LONG_SIZE);
+                lsnBase = raf.readLong() + raf.length();
+            }
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
+            raf.writeLong(lsnBase);
             raf.seek(raf.length());
             currentOffset = raf.getFilePointer();
         }
@@ -138,6 +198,35 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /**
+     * Set how long the flusher waits for more records before forcing the
+     * log. Longer delays make larger groups at the price of commit latency.
+     *
+     * @param ms the delay in milliseconds, 0 to force as soon as possible
+     */
+    public void setGroupCommitDelay(long ms) {
+        groupCommitDelay = ms;
+    }
+
+    public long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    /** @return the LSN of the end of the log */
+    public synchronized long getEndLsn() {
+        return lsnBase + Math.max(currentOffset, HEADER_SIZE);
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    public long getDurableLsn() {
+        return durableLsn.get();
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public long getForceCount() {
+        return forces.get();
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -149,15 +238,16 @@ public class LogFile {
 
         synchronized (Database.getBufferPool()) {
 
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord); rollback
+            // takes the log monitor itself, see there
+            rollback(tid);
+
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
                 raf.writeInt(ABORT_RECORD);
                 raf.writeLong(tid.getId());
                 raf.writeLong(currentOffset);
@@ -173,17 +263,22 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            durable = requestForce();
+        }
+        // wait outside the lock, so that other commits can join the group
+        await(durable);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -207,6 +302,10 @@ public class LogFile {
            after page data
            start offset
         */
+        // transactions that did not log a BEGIN record start with their
+        // first update, so that rollback can find their records
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -214,6 +313,7 @@ public class LogFile {
         writePageData(raf,after);
         raf.writeLong(currentOffset);
         currentOffset = raf.getFilePointer();
+        after.setLSN(lsnBase + currentOffset);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
@@ -275,7 +375,12 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            Constructor<?> pageConst = pageConsts[0];
+            for (Constructor<?> c : pageConsts) {
+                Class<?>[] types = c.getParameterTypes();
+                if (types.length == 2 && types[1] == byte[].class) pageConst = c;
+            }
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +400,21 @@ public class LogFile {
 
     }
 
+    /** Skip over page data written by writePageData. */
+    void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.skipBytes(numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        raf.seek(raf.getFilePointer() + pageSize);
+    }
+
+    /** @return true if tid has log records and has not committed or aborted */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -392,16 +512,23 @@ public class LogFile {
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
         logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        logNew.writeLong((cpLoc - minLogRecord) + HEADER_SIZE);
+        long newBase = lsnBase + minLogRecord - HEADER_SIZE;
+        logNew.writeLong(newBase);
 
         raf.seek(minLogRecord);
 
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
+                // the first record of a transaction is usually its BEGIN
+                // record, but may be an update
+                if (Long.valueOf(oldStart).equals(tidToFirstLogRecord.get(record_tid)))
+                    tidToFirstLogRecord.put(record_tid, newStart);
 
                 Debug.log("NEW START = " + newStart);
 
@@ -423,12 +550,9 @@ public class LogFile {
                         long xid = raf.readLong();
                         long xoffset = raf.readLong();
                         logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                        logNew.writeLong((xoffset - minLogRecord) + HEADER_SIZE);
                     }
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -450,6 +574,9 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        lsnBase = newBase;
+        // the records of a group being forced may now only be in this file
+        forceNow();
         //print();
     }
 
@@ -458,19 +585,116 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        An eviction of one of the pages may be waiting to log it, so the
+        rollback does not wait for evictions while it holds the log
+        monitor: it lets go of it until the eviction is done and then
+        reads the log again, which now has the page's update record.
 
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+        BufferPool bp = Database.getBufferPool();
+        synchronized (bp) {
+            // the pages are dropped from the pool, which waits for pins
+            bp.unpinAll(tid);
+            for (;;) {
+                PageId evicting;
+                synchronized(this) {
+                    preAppend();
+                    // some code goes here
+                    Long first = tidToFirstLogRecord.get(tid.getId());
+                    if (first == null)
+                        throw new NoSuchElementException("no log records for transaction " + tid.getId());
+
+                    // collect the before images of tid, oldest first
+                    ArrayList<Page> befores = new ArrayList<Page>();
+                    long end = raf.length();
+                    raf.seek(first);
+                    while (raf.getFilePointer() < end) {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        if (type == UPDATE_RECORD && record_tid == tid.getId()) {
+                            befores.add(readPageData(raf));
+                            skipPageData(raf);
+                            raf.readLong();
+                        } else {
+                            skipRecord(raf, type);
+                        }
+                    }
+                    raf.seek(end);
+
+                    // newest first, so the oldest image of each page is left
+                    Collections.reverse(befores);
+                    for (Page p : befores) p.setLSN(getEndLsn());
+                    evicting = installImages(befores, false, false);
+                    if (evicting == null) return;
+                }
+                bp.awaitEviction(evicting);
             }
         }
     }
 
+    /** Skip the rest of a record whose type and tid have been read. */
+    void skipRecord(RandomAccessFile raf, int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            skipPageData(raf);
+            skipPageData(raf);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+            break;
+        }
+        raf.readLong();
+    }
+
+    /**
+     * Write page images to disk in order and drop the pages from the buffer
+     * pool, so that the next reader sees what is on disk. The pages are
+     * dropped before they are written too, so that an eviction of one of
+     * them that is in progress cannot write it over its image.
+     *
+     * @param redo if true, skip images whose LSN is not newer than that of
+     *   the page on disk
+     * @param waitForEviction if false, give up on a page that is being
+     *   evicted instead of waiting for the eviction
+     * @return null, or the id of the page that is being evicted if the
+     *   images were given up on; none of them was written if it was
+     *   given up on before they were written
+     */
+    private PageId installImages(List<Page> images, boolean redo, boolean waitForEviction)
+            throws IOException {
+        LinkedHashSet<PageId> pids = new LinkedHashSet<PageId>();
+        for (Page p : images)
+            pids.add(p.getId());
+        PageId evicting = discardPages(pids, waitForEviction);
+        if (evicting != null)
+            return evicting;
+        for (Page p : images) {
+            DbFile file = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+            if (redo && file.getPageLSN(p.getId()) >= p.getLSN())
+                continue;
+            file.writePage(p);
+        }
+        // readers that do not lock may have read a page back meanwhile
+        return discardPages(pids, waitForEviction);
+    }
+
+    /** @return null, or the first page that is being evicted, see installImages */
+    private PageId discardPages(Set<PageId> pids, boolean waitForEviction) {
+        BufferPool bp = Database.getBufferPool();
+        for (PageId pid : pids) {
+            if (waitForEviction)
+                bp.discardPage(pid);
+            else if (!bp.tryDiscardPage(pid))
+                return pid;
+        }
+        return null;
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -494,6 +718,113 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < HEADER_SIZE) {
+                    // nothing was logged yet
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    raf.writeLong(0);
+                }
+                raf.seek(0);
+                long end = raf.length();
+                long cpLoc = raf.readLong();
+                lsnBase = raf.readLong();
+                long redoFrom = cpLoc == NO_CHECKPOINT_ID ? HEADER_SIZE : cpLoc;
+
+                // analysis: transactions active at the checkpoint may have
+                // records before it, which undo needs
+                long scanFrom = redoFrom;
+                tidToFirstLogRecord.clear();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    raf.readInt();
+                    raf.readLong();
+                    int numXactions = raf.readInt();
+                    while (numXactions-- > 0) {
+                        long xid = raf.readLong();
+                        long first = raf.readLong();
+                        tidToFirstLogRecord.put(xid, first);
+                        scanFrom = Math.min(scanFrom, first);
+                    }
+                }
+
+                // redo: repeat history from the checkpoint on, including the
+                // rollbacks of transactions that aborted; everything before
+                // the checkpoint was flushed by it
+                HashMap<Long, ArrayList<Page>> befores = new HashMap<Long, ArrayList<Page>>();
+                ArrayList<Page> redo = new ArrayList<Page>();
+                raf.seek(scanFrom);
+                while (raf.getFilePointer() < end) {
+                    long start = raf.getFilePointer();
+                    int type;
+                    long record_tid;
+                    try {
+                        type = raf.readInt();
+                        record_tid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            Page before = readPageData(raf);
+                            Page after = readPageData(raf);
+                            if (!befores.containsKey(record_tid))
+                                befores.put(record_tid, new ArrayList<Page>());
+                            befores.get(record_tid).add(before);
+                            if (!tidToFirstLogRecord.containsKey(record_tid))
+                                tidToFirstLogRecord.put(record_tid, start);
+                            raf.readLong();
+                            after.setLSN(lsnBase + raf.getFilePointer());
+                            if (start >= redoFrom) redo.add(after);
+                            break;
+                        case BEGIN_RECORD:
+                            tidToFirstLogRecord.put(record_tid, start);
+                            raf.readLong();
+                            break;
+                        case ABORT_RECORD:
+                            ArrayList<Page> undone = befores.remove(record_tid);
+                            raf.readLong();
+                            if (undone != null && start >= redoFrom) {
+                                Collections.reverse(undone);
+                                for (Page p : undone) p.setLSN(lsnBase + raf.getFilePointer());
+                                redo.addAll(undone);
+                            }
+                            tidToFirstLogRecord.remove(record_tid);
+                            break;
+                        case COMMIT_RECORD:
+                            befores.remove(record_tid);
+                            tidToFirstLogRecord.remove(record_tid);
+                            raf.readLong();
+                            break;
+                        default:
+                            skipRecord(raf, type);
+                        }
+                    } catch (EOFException e) {
+                        // a record torn by the crash; nothing after it counts
+                        end = start;
+                        break;
+                    }
+                }
+                installImages(redo, true, true);
+
+                // undo: roll back the transactions that never finished,
+                // newest record first, and log that they aborted
+                ArrayList<Page> undo = new ArrayList<Page>();
+                for (Map.Entry<Long, ArrayList<Page>> e : befores.entrySet())
+                    if (tidToFirstLogRecord.containsKey(e.getKey()))
+                        undo.addAll(e.getValue());
+                Collections.reverse(undo);
+                raf.setLength(end);
+                raf.seek(end);
+                currentOffset = end;
+                for (Page p : undo) p.setLSN(getEndLsn());
+                installImages(undo, false, true);
+
+                for (Long xid : new ArrayList<Long>(tidToFirstLogRecord.keySet())) {
+                    preAppend();
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(xid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                tidToFirstLogRecord.clear();
+                force();
             }
          }
     }
@@ -503,8 +834,99 @@ public class LogFile {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        if (Thread.holdsLock(this)) {
+            // the flusher needs this lock, so do not wait for it
+            forceNow();
+            return;
+        }
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            durable = requestForce();
+        }
+        await(durable);
+    }
+
+    /**
+     * Force the log up to the given LSN. Returns at once if that part of
+     * the log is already on disk, as it usually is for committed pages.
+     *
+     * @param lsn the LSN of a page about to be written
+     */
+    public void force(long lsn) throws IOException {
+        if (lsn <= durableLsn.get()) return;
+        force();
+    }
+
+    /** Return the future of the next force, scheduling the flusher. */
+    private CompletableFuture<Void> requestForce() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(this::flushGroup, groupCommitDelay, TimeUnit.MILLISECONDS);
+        }
+        return nextForce;
+    }
+
+    /** Force the log while holding the lock, completing the waiting group. */
+    private void forceNow() throws IOException {
         raf.getChannel().force(true);
+        forces.incrementAndGet();
+        durableLsn.accumulateAndGet(getEndLsn(), Math::max);
+        CompletableFuture<Void> group = nextForce;
+        nextForce = new CompletableFuture<Void>();
+        group.complete(null);
+    }
+
+    /** Run by the flusher: force the records of the current group. */
+    private void flushGroup() {
+        CompletableFuture<Void> group;
+        FileChannel ch;
+        long upTo;
+        synchronized (this) {
+            flushScheduled = false;
+            group = nextForce;
+            nextForce = new CompletableFuture<Void>();
+            ch = raf.getChannel();
+            upTo = getEndLsn();
+        }
+        try {
+            for (;;) {
+                try {
+                    ch.force(true);
+                    break;
+                } catch (ClosedChannelException e) {
+                    // logTruncate replaced the file; it forced the new one
+                    // and these records are in it
+                    synchronized (this) {
+                        ch = raf.getChannel();
+                    }
+                }
+            }
+            forces.incrementAndGet();
+            durableLsn.accumulateAndGet(upTo, Math::max);
+            group.complete(null);
+        } catch (IOException e) {
+            group.completeExceptionally(e);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> durable) throws IOException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    durable.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IOException("could not force the log", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
     }
 
 }
@@ -1,7 +1,9 @@
 package simpledb;
 import java.util.Map;
 import java.util.Vector;
+import java.util.List;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -271,8 +273,123 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Tell each scan which fields of its table the query uses: those in the
+     * select list, the filters, the joins, the aggregate and the ORDER BY.
+     * A query that selects * uses every field.
+     */
+    private void pushDownColumns() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList)
+            used.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            used.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        if (aggField != null) used.add(aggField);
+        if (groupByField != null) used.add(groupByField);
+        if (oByField != null) used.add(oByField);
+        for (String name : used)
+            if (name.endsWith(".*")) return;
+
+        for (LogicalScanNode table : tables) {
+            TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+            boolean[] columns = new boolean[td.numFields()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = used.contains(table.alias + "." + td.getFieldName(i));
+            ((SeqScan) subplanMap.get(table.alias)).setColumns(columns);
+        }
+    }
+
+    /**
+     * Choose how each table is read. A table is read through an index
+     * instead of scanned when a filter on it compares an indexed field to a
+     * constant with an operator the index can search for, and reading the
+     * tuples that filter selects costs less than scanning the file. The
+     * key field of a table stored in a {@link BTreeFile} is indexed by the
+     * file itself, see {@link TableStats#estimateIndexScanCost}; any field
+     * may have a {@link SecondaryIndex}, see
+     * {@link TableStats#estimateSecondaryIndexScanCost}. Of several such
+     * filters and indexes the cheapest is used.
+     *
+     * @param statsMap the TableStats of each base table, by table name
+     * @return the filters that the index scans evaluate already
+     */
+    private HashSet<LogicalFilterNode> chooseAccessPaths(TransactionId t,
+            Map<String,TableStats> statsMap, boolean explain) throws ParsingException {
+        HashSet<LogicalFilterNode> indexed = new HashSet<LogicalFilterNode>();
+        for (LogicalScanNode table : tables) {
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(table.t);
+            if (s == null || !(file instanceof BTreeFile) && indexes.isEmpty())
+                continue;
+            TupleDesc td = file.getTupleDesc();
+
+            LogicalFilterNode best = null;
+            Field bestConstant = null;
+            SecondaryIndex bestIndex = null;
+            double bestCost = s.estimateScanCost();
+            for (LogicalFilterNode lf : filters) {
+                if (!lf.tableAlias.equals(table.alias)
+                        || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                    continue;
+                int field;
+                try {
+                    field = td.fieldNameToIndex(lf.fieldPureName);
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                Field f = filterConstant(lf, td.getFieldType(field));
+                double sel = s.estimateSelectivity(field, lf.p, f);
+                if (file instanceof BTreeFile && field == ((BTreeFile) file).keyField()
+                        && s.estimateIndexScanCost(sel) < bestCost) {
+                    best = lf;
+                    bestConstant = f;
+                    bestIndex = null;
+                    bestCost = s.estimateIndexScanCost(sel);
+                }
+                for (SecondaryIndex index : indexes) {
+                    if (index.getField() == field
+                            && s.estimateSecondaryIndexScanCost(index, sel) < bestCost) {
+                        best = lf;
+                        bestConstant = f;
+                        bestIndex = index;
+                        bestCost = s.estimateSecondaryIndexScanCost(index, sel);
+                    }
+                }
+            }
+            if (best == null)
+                continue;
+
+            IndexPredicate ipred = new IndexPredicate(best.p, bestConstant);
+            if (bestIndex == null)
+                subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias, ipred));
+            else
+                subplanMap.put(table.alias, new SecondaryIndexScan(t, bestIndex, table.alias, ipred));
+            indexed.add(best);
+            if (explain)
+                System.out.println("Reading " + table.alias + " through its index on "
+                        + best.fieldQuantifiedName + " " + best.p + " " + best.c);
+        }
+        return indexed;
+    }
+
+    /**
+     * @return the constant of a filter on a field of the given type
+     */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   Tables with an index may be read through it, see {@link #chooseAccessPaths}.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -306,6 +423,9 @@ public class LogicalPlan {
 
         }
 
+        pushDownColumns();
+        HashSet<LogicalFilterNode> indexed = chooseAccessPaths(t, statsMap, explain);
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +443,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,7 +451,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the index scan returns only the tuples that satisfy the filter
+            if (!indexed.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). For every resident page
+ * the times of its last K references are kept; the victim is the page
+ * whose K-th most recent reference lies furthest in the past. Pages that
+ * have been referenced fewer than K times count as infinitely old, so a
+ * page touched once by a scan goes before a B+ tree root that is touched
+ * by every lookup. Ties are broken by the most recent reference (plain LRU).
+ * <p>
+ * Recording a reference only locks the history of the page concerned, so
+ * buffer pool hits on different pages do not contend.
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    /** Reference history of one page, newest entry at history[(next-1) mod K]. */
+    private static class History {
+        final long[] times;
+        int count = 0;
+        int next = 0;
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        synchronized void add(long t) {
+            times[next] = t;
+            next = (next + 1) % times.length;
+            if (count < times.length) count++;
+        }
+
+        synchronized long last() {
+            return times[(next - 1 + times.length) % times.length];
+        }
+
+        /** time of the K-th most recent reference, or -1 if there were fewer than K */
+        synchronized long kth() {
+            return count < times.length ? -1 : times[next];
+        }
+    }
+
+    private final int k;
+    private final ConcurrentHashMap<PageId, History> history = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong(0);
+
+    public LruKPolicy(int k) {
+        if (k < 1) throw new IllegalArgumentException("K must be positive");
+        this.k = k;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public void pageAdmitted(PageId pid) {
+        history.computeIfAbsent(pid, p -> new History(k)).add(clock.incrementAndGet());
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = history.get(pid);
+        if (h != null) h.add(clock.incrementAndGet());
+    }
+
+    public void pageRemoved(PageId pid) {
+        history.remove(pid);
+    }
+
+    public synchronized PageId victim(Function<PageId, Boolean> evictable) {
+        PageId best = null;
+        long bestKth = 0, bestLast = 0;
+        for (Map.Entry<PageId, History> e : history.entrySet()) {
+            History h = e.getValue();
+            long kth = h.kth(), last = h.last();
+            if (best != null && (kth > bestKth || (kth == bestKth && last >= bestLast)))
+                continue;
+            if (!evictable.apply(e.getKey())) continue;
+            best = e.getKey();
+            bestKth = kth;
+            bestLast = last;
+        }
+        return best;
+    }
+}
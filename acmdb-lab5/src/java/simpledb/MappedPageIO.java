@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Page I/O that reads from a read-only memory mapping of the file, so a
+ * read of a page in the OS cache is a copy without a system call. Writes go
+ * through the channel and are seen by the mapping. When a read reaches past
+ * the mapped region and the file has grown, the file is mapped again.
+ * <p>
+ * Reads copy out of the mapping: pages must not keep referring to it, since
+ * later writes of the file show through.
+ *
+ * @Threadsafe
+ */
+public class MappedPageIO extends ChannelPageIO {
+
+    private volatile MappedByteBuffer map;
+
+    public MappedPageIO(File f) throws IOException {
+        super(f);
+        remap();
+    }
+
+    /** Map the whole file as it is now. */
+    private synchronized void remap() throws IOException {
+        long size = channel.size();
+        if (map != null && map.capacity() >= size) return;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("file too large to map: " + size + " bytes");
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    public int read(long pos, byte[] buf) throws IOException {
+        MappedByteBuffer m = map;
+        if (pos + buf.length > m.capacity()) {
+            remap();
+            m = map;
+        }
+        if (pos >= m.capacity()) return buf.length > 0 ? -1 : 0;
+        ByteBuffer src = m.duplicate();
+        src.position((int) pos);
+        int n = (int) Math.min(buf.length, m.capacity() - pos);
+        src.get(buf, 0, n);
+        return n;
+    }
+}
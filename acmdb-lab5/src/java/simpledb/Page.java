@@ -56,4 +56,19 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Return the LSN of the last logged update contained in this page: the
+     * log must be on disk up to this LSN before the page is written.
+     * Pages that were never logged have LSN 0. The before image carries
+     * the LSN this page had when {@link #setBeforeImage} was called.
+     *
+     * @see LogFile
+     */
+    public long getLSN();
+
+    /**
+     * Set the LSN of this page.
+     */
+    public void setLSN(long lsn);
 }
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.*;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * PageChecksums keeps a checksum of each page of one DbFile as it was last
+ * written, so that a page torn by a crash in the middle of its write, or
+ * otherwise damaged on disk, is detected when it is read instead of being
+ * decoded into garbage tuples.
+ * <p>
+ * Like the LSNs of {@link PageLsns}, the checksums are stored next to the
+ * DbFile, in a file named like it with ".crc" appended, so the layout of
+ * the pages does not change. There is one long per page number: 0 for a
+ * page that was never written through its DbFile (such as pages of a file
+ * made by HeapFileEncoder), which is not checked, otherwise the CRC-32 of
+ * the page with bit 32 set.
+ * <p>
+ * Callers write the checksum of a page after the page itself, so a crash
+ * between the two leaves the old checksum: the page is then reported as
+ * torn even if its write completed, until recovery writes it again.
+ *
+ * @Threadsafe
+ */
+class PageChecksums {
+
+    /** Suffix of the file of checksums, appended to the path of the data file. */
+    static final String SUFFIX = ".crc";
+
+    private static final long PRESENT = 1L << 32;
+
+    private final File file;
+    private RandomAccessFile raf; // null until the file is needed
+
+    /**
+     * @param dataFile the file of the DbFile whose page checksums are kept
+     */
+    PageChecksums(File dataFile) {
+        file = new File(dataFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return the checksum of len bytes of data from off; CRC32 is
+     *   computed with the processor's carry-less multiply where the JVM
+     *   supports it
+     */
+    static long checksum(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return crc.getValue() | PRESENT;
+    }
+
+    private synchronized long get(int pgno) throws IOException {
+        if (raf == null) {
+            if (!file.exists()) return 0;
+            raf = new RandomAccessFile(file, "rw");
+        }
+        long pos = (long) pgno * Long.BYTES;
+        if (pos + Long.BYTES > raf.length()) return 0;
+        raf.seek(pos);
+        return raf.readLong();
+    }
+
+    /** Record the checksum of a page that was just written. */
+    void set(int pgno, byte[] data, int off, int len) throws IOException {
+        long sum = checksum(data, off, len);
+        synchronized (this) {
+            if (raf == null) raf = new RandomAccessFile(file, "rw");
+            raf.seek((long) pgno * Long.BYTES);
+            raf.writeLong(sum);
+        }
+    }
+
+    /**
+     * Check a page just read against the checksum it was written with.
+     *
+     * @return false if the page has a checksum and data does not match it
+     */
+    boolean matches(int pgno, byte[] data) throws IOException {
+        long sum = get(pgno);
+        return sum == 0 || sum == checksum(data, 0, data.length);
+    }
+
+    /** @return true if a checksum was recorded for the page */
+    boolean recorded(int pgno) throws IOException {
+        return get(pgno) != 0;
+    }
+
+    /**
+     * @throws ChecksumException if the page has a checksum and data does
+     *   not match it
+     */
+    void verify(File dataFile, int pgno, byte[] data) throws IOException {
+        if (!matches(pgno, data))
+            throw new ChecksumException(dataFile, pgno);
+    }
+
+    /** Reads the bytes of a page from disk. */
+    interface PageReader {
+        byte[] read(int pgno) throws IOException;
+    }
+
+    /**
+     * Check pages 0 to numPages - 1 against their checksums, reading and
+     * checking them in parallel.
+     *
+     * @return the numbers of the pages that do not match, in order
+     */
+    List<Integer> scrub(int numPages, PageReader reader) throws IOException {
+        try {
+            return IntStream.range(0, numPages).parallel().filter(pgno -> {
+                try {
+                    return !matches(pgno, reader.read(pgno));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).boxed().collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageExtents keeps the number of pages of a HeapFile in memory, so that
+ * scans and inserts do not ask the file system for the length of the file
+ * each time they need it, and grows the file by {@link #EXTENT_PAGES}
+ * pages at a time instead of writing every new page as it is added.
+ * <p>
+ * The pages allocated past the count are zero, which both page formats
+ * read as an empty page, and have no checksum since they were never
+ * written as pages. When the count is first needed it is the number of
+ * pages in the file less such trailing pages, so pages that were
+ * preallocated but never used do not count once the file is opened again.
+ * The file may also grow from outside, through another HeapFile on the
+ * same file or by appending to it directly; {@link #refresh} notices
+ * that, and {@link #allocate} does not hand out a page that was written.
+ *
+ * @Threadsafe
+ */
+class PageExtents {
+
+    /** Pages the file grows by when a page past its end is allocated. */
+    static final int EXTENT_PAGES = 8;
+
+    private final PageIO io;
+    private final PageChecksums sums;
+    private final int pageSize;
+
+    /** the number of pages, -1 until it is first needed */
+    private final AtomicInteger pages = new AtomicInteger(-1);
+    /** the length of the file as last seen or grown to */
+    private volatile long end;
+
+    /**
+     * @param io the I/O of the file whose pages are counted
+     * @param sums the checksums of its pages
+     */
+    PageExtents(PageIO io, PageChecksums sums, int pageSize) {
+        this.io = io;
+        this.sums = sums;
+        this.pageSize = pageSize;
+    }
+
+    /** @return the number of pages, without touching the file once known */
+    int count() throws IOException {
+        int n = pages.get();
+        return n >= 0 ? n : load();
+    }
+
+    private synchronized int load() throws IOException {
+        if (pages.get() >= 0) return pages.get();
+        long len = io.length();
+        int n = (int) (len / pageSize);
+        // unused pages of the last extent can only be at the end
+        byte[] data = new byte[pageSize];
+        for (int k = 0; n > 0 && k < EXTENT_PAGES; k++, n--) {
+            if (sums.recorded(n - 1)) break;
+            io.read((long) (n - 1) * pageSize, data);
+            if (!isZero(data)) break;
+        }
+        end = len;
+        pages.set(n);
+        return n;
+    }
+
+    private static boolean isZero(byte[] data) {
+        for (byte b : data)
+            if (b != 0) return false;
+        return true;
+    }
+
+    /**
+     * Check the length of the file for pages appended to it from outside.
+     *
+     * @return the number of pages
+     */
+    synchronized int refresh() throws IOException {
+        count();
+        long len = io.length();
+        if (len > end) {
+            end = len;
+            pages.accumulateAndGet((int) (len / pageSize), Math::max);
+        }
+        return pages.get();
+    }
+
+    /**
+     * Add a page at the end of the count, growing the file by an extent if
+     * the page is past its end. The page reads as empty until it is
+     * written. Pages past the count that another HeapFile on the same file
+     * has written are counted and skipped.
+     *
+     * @return the number of the new page
+     */
+    int allocate() throws IOException {
+        count();
+        int n;
+        do {
+            n = pages.getAndIncrement();
+        } while (sums.recorded(n));
+        if ((long) (n + 1) * pageSize > end) extend(n);
+        return n;
+    }
+
+    private synchronized void extend(int pgno) throws IOException {
+        if ((long) (pgno + 1) * pageSize <= end) return;
+        long len = io.length();
+        if (len > end) end = len;
+        if ((long) (pgno + 1) * pageSize <= end) return;
+        long from = end / pageSize;
+        // extents end on multiples of their size
+        long to = ((long) pgno / EXTENT_PAGES + 1) * EXTENT_PAGES;
+        io.write(from * pageSize, new byte[(int) ((to - from) * pageSize)]);
+        end = to * pageSize;
+    }
+
+    /** Note that a page was written, which may be past the count. */
+    void written(int pgno) {
+        if (pages.get() > pgno) return;
+        synchronized (this) {
+            if (pages.get() < 0) return; // loaded from the file when needed
+            pages.accumulateAndGet(pgno + 1, Math::max);
+            end = Math.max(end, (long) (pgno + 1) * pageSize);
+        }
+    }
+}
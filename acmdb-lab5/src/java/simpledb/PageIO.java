@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PageIO reads and writes the bytes of the file behind a DbFile. HeapFile
+ * and BTreeFile do all their page I/O through one, so how a table's file is
+ * accessed can be chosen per table without changing the files themselves.
+ * <p>
+ * Known kinds are "raf", a RandomAccessFile whose seek pointer is shared,
+ * so reads and writes of one file take turns; "channel", positional reads
+ * and writes on a FileChannel, which do not share a pointer; and "mmap",
+ * which reads from a memory mapping of the file and writes through the
+ * channel. A fourth kind, "compressed", stores each page deflated, see
+ * {@link CompressedPageIO}; it only reads and writes whole pages, so it
+ * suits HeapFiles but not BTreeFiles. The kind used when a table does not
+ * name one can be chosen with
+ * the system property <code>simpledb.PageIO</code>, e.g.
+ * <code>-Dsimpledb.PageIO=mmap</code>, and is "raf" if it is not set.
+ *
+ * @Threadsafe
+ */
+public interface PageIO extends Closeable {
+
+    /** Name of the system property used to select the default kind. */
+    String PROPERTY = "simpledb.PageIO";
+
+    /**
+     * Read bytes at the given position until buf is full or the file ends.
+     *
+     * @return the number of bytes read, or -1 if pos is at or past the end
+     *   of the file
+     */
+    int read(long pos, byte[] buf) throws IOException;
+
+    /** Write all of data at the given position, growing the file if needed. */
+    void write(long pos, byte[] data) throws IOException;
+
+    /** @return the current length of the file in bytes */
+    long length() throws IOException;
+
+    /**
+     * Open a file with the given kind of I/O, creating it if it does not
+     * exist.
+     *
+     * @throws IllegalArgumentException if the kind is not recognized
+     */
+    static PageIO open(File f, String kind) throws IOException {
+        switch (kind.trim().toLowerCase()) {
+        case "raf":
+            return new RafPageIO(f);
+        case "channel":
+            return new ChannelPageIO(f);
+        case "mmap":
+            return new MappedPageIO(f);
+        case "compressed":
+            return new CompressedPageIO(f, BufferPool.getPageSize());
+        default:
+            throw new IllegalArgumentException("Unknown page I/O " + kind);
+        }
+    }
+
+    /** Open a file with the kind selected by the system property. */
+    static PageIO open(File f) throws IOException {
+        return open(f, defaultKind());
+    }
+
+    /** @return the kind selected by the system property */
+    static String defaultKind() {
+        return System.getProperty(PROPERTY, "raf");
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PageLsns keeps the LSNs of the pages of one DbFile on disk. They are
+ * stored next to the DbFile, in a file named like it with ".lsn" appended,
+ * as one long per page number, so the layout and the capacity of the pages
+ * themselves do not change. A page without an entry has LSN 0, and the file
+ * is only created once a page with a non-zero LSN is written.
+ * <p>
+ * Callers write the LSN of a page after the page itself, so after a crash
+ * the stored LSN is never newer than the page on disk: at worst recovery
+ * redoes an update that was already there.
+ *
+ * @Threadsafe
+ */
+class PageLsns {
+
+    /** Suffix of the file of LSNs, appended to the path of the data file. */
+    static final String SUFFIX = ".lsn";
+
+    private final File file;
+    private RandomAccessFile raf; // null until the file is needed
+
+    /**
+     * @param dataFile the file of the DbFile whose page LSNs are kept
+     */
+    PageLsns(File dataFile) {
+        file = new File(dataFile.getPath() + SUFFIX);
+    }
+
+    /** @return the LSN of the page with the given number on disk */
+    synchronized long get(int pgno) throws IOException {
+        if (raf == null) {
+            if (!file.exists()) return 0;
+            raf = new RandomAccessFile(file, "rw");
+        }
+        long pos = (long) pgno * Long.BYTES;
+        if (pos + Long.BYTES > raf.length()) return 0;
+        raf.seek(pos);
+        return raf.readLong();
+    }
+
+    /** Record the LSN of a page that was just written. */
+    synchronized void set(int pgno, long lsn) throws IOException {
+        if (raf == null) {
+            if (lsn == 0 && !file.exists()) return;
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.seek((long) pgno * Long.BYTES);
+        raf.writeLong(lsn);
+    }
+}
@@ -0,0 +1,287 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan is a sequential scan that reads the pages of a table on
+ * the threads of a fork-join pool. The pages of a HeapFile are split into
+ * ranges, which the pool scans in parallel; the tuples of each page that
+ * pass the filters pushed down into the scan are handed to the thread
+ * calling next through a bounded exchange queue, so the scan does not run
+ * further ahead of its consumer than the queue holds. Tuples come in no
+ * particular order. A table that is not a HeapFile is scanned by one
+ * thread of the pool through its iterator.
+ * <p>
+ * The pool is shared by all parallel scans and has as many threads as
+ * the system property {@link #THREADS_PROPERTY} says, by default one per
+ * processor. All threads take locks on behalf of the scan's transaction,
+ * each blocking on a lock request of its own; close waits for them to
+ * stop, so no lock is taken after the scan is closed.
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** System property with the number of threads of the scan pool. */
+    public static final String THREADS_PROPERTY = "simpledb.ScanThreads";
+
+    /** Page ranges per thread, so that threads that finish early can steal. */
+    private static final int RANGES_PER_THREAD = 4;
+
+    /** Pages of tuples the exchange queue holds per thread. */
+    private static final int QUEUE_PAGES_PER_THREAD = 2;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(
+            Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+            p -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("simpledb-scan-" + t.getPoolIndex());
+                t.setDaemon(true);
+                return t;
+            }, null, false);
+
+    /** Marks the end of the tuples in the exchange queue. */
+    private static final List<Tuple> END = new ArrayList<Tuple>(0);
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final Predicate[] filters;
+
+    private transient Exchange exchange;
+    private transient Iterator<Tuple> current;
+    private transient boolean finished;
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction, returning only the tuples that pass every one
+     * of the given filters.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see {@link SeqScan#SeqScan}
+     * @param filters
+     *            the predicates the tuples returned must satisfy
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, Predicate... filters) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.filters = filters.clone();
+    }
+
+    /** @return the number of threads parallel scans run on */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * The state shared by the scan and the threads of one open: the
+     * exchange queue, and how the threads stop.
+     */
+    private static class Exchange {
+        final BlockingQueue<List<Tuple>> queue =
+                new ArrayBlockingQueue<List<Tuple>>(QUEUE_PAGES_PER_THREAD * pool.getParallelism());
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ForkJoinTask<?> task;
+
+        boolean stopped() {
+            return closed.get() || failure.get() != null;
+        }
+
+        /** @return false if the scan was closed before the batch got in */
+        boolean put(List<Tuple> batch) {
+            while (!closed.get()) {
+                try {
+                    if (queue.offer(batch, 10, TimeUnit.MILLISECONDS)) return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Scans the pages lo to hi - 1 of a HeapFile, splitting larger ranges. */
+    private class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Exchange ex;
+        final HeapFile file;
+        final int lo, hi, grain;
+
+        Range(Exchange ex, HeapFile file, int lo, int hi, int grain) {
+            this.ex = ex;
+            this.file = file;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > grain) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Range(ex, file, lo, mid, grain), new Range(ex, file, mid, hi, grain));
+                return;
+            }
+            BufferPool bp = Database.getBufferPool();
+            ScanRing ring = bp.getScanRing(file.numPages());
+            ReadAhead readAhead = new ReadAhead(ring,
+                    (id, page) -> id.pageNumber() + 1 < hi ? new HeapPageId(file.getId(), id.pageNumber() + 1) : null);
+            try {
+                for (int pgno = lo; pgno < hi && !ex.stopped(); pgno++) {
+                    HeapPageId pid = new HeapPageId(file.getId(), pgno);
+                    // pages read through the pool stay pinned while they are read
+                    Page p = ring == null ? bp.pinPage(tid, pid, Permissions.READ_ONLY)
+                            : bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+                    List<Tuple> batch = new ArrayList<Tuple>();
+                    try {
+                        readAhead.moved(p);
+                        for (Iterator<Tuple> it = ((HeapFilePage) p).iterator(); it.hasNext(); ) {
+                            Tuple t = it.next();
+                            if (passes(t)) batch.add(t);
+                        }
+                    } finally {
+                        if (ring == null) bp.unpinPage(tid, pid);
+                    }
+                    if (!batch.isEmpty() && !ex.put(batch)) return;
+                }
+            } catch (Throwable e) {
+                ex.failure.compareAndSet(null, e);
+            } finally {
+                readAhead.close();
+            }
+        }
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : filters)
+            if (!p.filter(t)) return false;
+        return true;
+    }
+
+    /** Scans a table that is not a HeapFile through its iterator. */
+    private void scanIterator(Exchange ex, DbFile file) throws DbException, TransactionAbortedException {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        try {
+            List<Tuple> batch = new ArrayList<Tuple>();
+            while (!ex.stopped() && it.hasNext()) {
+                Tuple t = it.next();
+                if (passes(t)) batch.add(t);
+                if (batch.size() >= 64) {
+                    if (!ex.put(batch)) return;
+                    batch = new ArrayList<Tuple>();
+                }
+            }
+            if (!batch.isEmpty()) ex.put(batch);
+        } finally {
+            it.close();
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        final Exchange ex = new Exchange();
+        final DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        ex.task = pool.submit(() -> {
+            try {
+                if (file instanceof HeapFile) {
+                    int n = ((HeapFile) file).numPages();
+                    int grain = Math.max(1, n / (RANGES_PER_THREAD * pool.getParallelism()));
+                    new Range(ex, (HeapFile) file, 0, n, grain).invoke();
+                } else {
+                    scanIterator(ex, file);
+                }
+            } catch (Throwable e) {
+                ex.failure.compareAndSet(null, e);
+            } finally {
+                ex.put(END);
+            }
+        });
+        exchange = ex;
+        current = Collections.<Tuple>emptyList().iterator();
+        finished = false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(tableid, alias);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (exchange == null) throw new DbException("scan not open");
+        while (!current.hasNext()) {
+            if (finished) return false;
+            List<Tuple> batch;
+            try {
+                batch = exchange.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for tuples");
+            }
+            Throwable failure = exchange.failure.get();
+            if (failure != null) {
+                finished = true;
+                if (failure instanceof TransactionAbortedException) throw (TransactionAbortedException) failure;
+                if (failure instanceof DbException) throw (DbException) failure;
+                if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+                throw new DbException("parallel scan failed: " + failure);
+            }
+            if (batch == END) finished = true;
+            else current = batch.iterator();
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) throw new NoSuchElementException();
+        return current.next();
+    }
+
+    /**
+     * Stops the threads of the scan and waits until they have stopped.
+     */
+    public void close() {
+        Exchange ex = exchange;
+        if (ex == null) return;
+        ex.closed.set(true);
+        ex.queue.clear();
+        ex.task.quietlyJoin();
+        exchange = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
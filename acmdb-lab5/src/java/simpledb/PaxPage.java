@@ -0,0 +1,247 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage is a page of a HeapFile that stores its tuples column by column
+ * (Partition Attributes Across), for tables whose queries read a few of
+ * many columns. The slots are those of a HeapPage: the page holds as many
+ * tuples and starts with the same header bitmap of used slots. After the
+ * header comes one minipage per column, holding the field of that column
+ * of every slot in slot order, in the format Field.serialize writes it;
+ * the minipage of column i starts after the minipages of columns 0 to
+ * i - 1.
+ * <p>
+ * {@link #iterator(boolean[])} only decodes the columns asked for, so a
+ * scan under a projection reads the minipages of the columns it needs and
+ * does not parse the others.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class PaxPage implements HeapFilePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    private final int headerSize;
+    private final int[] columnOffsets;
+    private final byte[] data;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile long lsn = 0;
+    private long oldLsn = 0;
+    private boolean dirty = false;
+    private TransactionId dirtyID = null;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above. A page of zeroes is empty.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a PaxPage of a table that is not in the catalog.
+     */
+    PaxPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        if (data.length != BufferPool.getPageSize())
+            throw new IOException("page data is " + data.length + " bytes");
+        this.pid = id;
+        this.td = td;
+        this.data = data.clone();
+        numSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        headerSize = (numSlots + 7) / 8;
+        columnOffsets = new int[td.numFields()];
+        int off = headerSize;
+        for (int i = 0; i < columnOffsets.length; i++) {
+            columnOffsets[i] = off;
+            off += numSlots * td.getFieldType(i).getLen();
+        }
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            long oldLsnRef;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+                oldLsnRef = oldLsn;
+            }
+            PaxPage p = new PaxPage(pid,oldDataRef,td);
+            p.setLSN(oldLsnRef);
+            return p;
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        oldLsn = lsn;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getFreeSpace() {
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i)) n++;
+        return n;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data[i / 8] >> (i % 8) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) data[i / 8] |= (byte) (1 << (i % 8));
+        else data[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    private int fieldOffset(int slot, int column) {
+        return columnOffsets[column] + slot * td.getFieldType(column).getLen();
+    }
+
+    /**
+     * Adds the specified tuple to the page in the first empty slot, writing
+     * each field into the minipage of its column.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc mismatch");
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot)) slot++;
+        if (slot == numSlots)
+            throw new DbException("full");
+
+        for (int i = 0; i < td.numFields(); i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(td.getFieldType(i).getLen());
+            try {
+                t.getField(i).serialize(new DataOutputStream(bytes));
+            } catch (IOException e) {
+                throw new DbException("cannot serialize field " + i);
+            }
+            System.arraycopy(bytes.toByteArray(), 0, data, fieldOffset(slot, i), td.getFieldType(i).getLen());
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page and zero its fields.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || rid.tupleno() >= numSlots
+                || !isSlotUsed(rid.tupleno()))
+            throw new DbException("non existing");
+        int slot = rid.tupleno();
+        for (int i = 0; i < td.numFields(); i++) {
+            int off = fieldOffset(slot, i);
+            Arrays.fill(data, off, off + td.getFieldType(i).getLen(), (byte) 0);
+        }
+        markSlotUsed(slot, false);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyID = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtyID : null;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * @param columns whether each field is needed, or null for all of them
+     * @return an iterator over all tuples on this page, in which only the
+     *   fields needed are set; the minipages of the other columns are not
+     *   read
+     */
+    public Iterator<Tuple> iterator(boolean[] columns) {
+        int n = numSlots - getFreeSpace();
+        Tuple[] ret = new Tuple[n];
+        int[] slots = new int[n];
+        for (int i = 0, k = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) continue;
+            ret[k] = new Tuple(td);
+            ret[k].setRecordId(new RecordId(pid, i));
+            slots[k++] = i;
+        }
+        // one column at a time, so each minipage is read in order
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int c = 0; c < td.numFields(); c++) {
+            if (columns != null && !columns[c]) continue;
+            Type type = td.getFieldType(c);
+            for (int k = 0; k < n; k++)
+                ret[k].setField(c, type.parse(buf, fieldOffset(slots[k], c)));
+        }
+        return Collections.unmodifiableList(Arrays.asList(ret)).iterator();
+    }
+}
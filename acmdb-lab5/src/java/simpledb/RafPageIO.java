@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Page I/O through a single RandomAccessFile. Every access seeks the shared
+ * file pointer, so accesses to one file are serialized.
+ *
+ * @Threadsafe
+ */
+public class RafPageIO implements PageIO {
+
+    private final RandomAccessFile raf;
+
+    public RafPageIO(File f) throws IOException {
+        raf = new RandomAccessFile(f, "rw");
+    }
+
+    public synchronized int read(long pos, byte[] buf) throws IOException {
+        raf.seek(pos);
+        int n = 0;
+        while (n < buf.length) {
+            int r = raf.read(buf, n, buf.length - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n == 0 && buf.length > 0 ? -1 : n;
+    }
+
+    public synchronized void write(long pos, byte[] data) throws IOException {
+        raf.seek(pos);
+        raf.write(data);
+    }
+
+    public long length() throws IOException {
+        return raf.length();
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ReadAhead reads the pages a sequential scan is about to ask for on a
+ * pool of I/O threads, so that the scan finds them in memory instead of
+ * waiting for a read after each page it finishes. Each scan has its own
+ * ReadAhead and tells it every page it moves to.
+ * <p>
+ * Nothing is read ahead until the scan has moved to the next page
+ * {@link #MIN_RUN} times, so a scan that stops after a page or two costs
+ * no extra reads. From then on the window, the number of pages kept read
+ * ahead of the scan, follows the rates observed: it is the time a read
+ * takes divided by the time the scan spends on a page, so a scan that
+ * consumes pages faster than they are read gets a deeper window. The
+ * window grows by at most one page per page scanned and is capped by
+ * {@link #PROPERTY}, and by half the ring when the scan uses a scan ring so
+ * that pages read ahead do not push out each other.
+ * <p>
+ * Pages are read through {@link BufferPool#prefetch}; the pool counts the
+ * pages read ahead that the scan used and those it did not.
+ */
+class ReadAhead {
+
+    /**
+     * System property with the largest number of pages read ahead of a
+     * scan; 0 turns reading ahead off.
+     */
+    public static final String PROPERTY = "simpledb.ReadAhead";
+
+    /** Default largest number of pages read ahead of a scan. */
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    /** Pages a scan moves through in order before reading ahead starts. */
+    static final int MIN_RUN = 2;
+
+    /** How a scan gets from a page to the next one. */
+    interface Successor {
+        /**
+         * @return the ID of the page after the given one, or null if it is
+         *   the last
+         */
+        PageId next(PageId id, Page page);
+    }
+
+    private static final ExecutorService io =
+            Executors.newFixedThreadPool(2, r -> {
+                Thread t = new Thread(r, "simpledb-read-ahead");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final BufferPool pool;
+    private final ScanRing ring;
+    private final Successor successor;
+    private final int maxPages;
+
+    /** pages read ahead that the scan has not moved to yet, in order */
+    private final ConcurrentLinkedDeque<PageId> ahead = new ConcurrentLinkedDeque<PageId>();
+    /**
+     * the last page read ahead, from which reading continues, and its
+     * position in the scan
+     */
+    private volatile PageId frontier;
+    private volatile Page frontierPage;
+    private volatile long frontierPosition;
+    /** the number of pages the scan has moved to */
+    private volatile long position = 0;
+    /** nanoseconds a read takes, on average */
+    private volatile double readNanos = 0;
+    private volatile boolean closed = false;
+    private Future<?> task = null;
+
+    private PageId last = null;
+    private Page lastPage = null;
+    private long lastMoved = 0;
+    /** nanoseconds the scan spends on a page, on average */
+    private double pageNanos = 0;
+    private int run = 0;
+    private int window = 0;
+
+    /**
+     * @param ring the scan ring of the scan, or null if it reads pages into
+     *   the pool
+     * @param successor how the scan gets to the next page
+     */
+    ReadAhead(ScanRing ring, Successor successor) {
+        this.pool = Database.getBufferPool();
+        this.ring = ring;
+        this.successor = successor;
+        int max = Integer.getInteger(PROPERTY, DEFAULT_MAX_PAGES);
+        this.maxPages = ring == null ? max : Math.min(max, ring.size() / 2);
+    }
+
+    /** @return the number of pages currently kept read ahead of the scan */
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Called when the scan moves to a page; reads further pages ahead if the
+     * scan is sequential.
+     *
+     * @param page the page the scan is on now
+     */
+    void moved(Page page) {
+        if (closed || maxPages <= 0) return;
+        PageId id = page.getId();
+        long now = System.nanoTime();
+        if (last != null && id.equals(successor.next(last, lastPage))) {
+            // the scan went on from the last page
+            pageNanos = pageNanos == 0 ? now - lastMoved : 0.75 * pageNanos + 0.25 * (now - lastMoved);
+            run++;
+        } else {
+            run = 0;
+        }
+        last = id;
+        lastPage = page;
+        lastMoved = now;
+        position++;
+
+        // pages up to this one are used; if it was not read ahead the scan
+        // went elsewhere and what was read ahead no longer follows it
+        if (ahead.contains(id)) {
+            while (!id.equals(ahead.poll())) { }
+        } else if (!ahead.isEmpty() && (task == null || task.isDone())) {
+            ahead.clear();
+        }
+        if (run < MIN_RUN) return;
+
+        int target = pageNanos <= 0 ? 1 : (int) Math.ceil(readNanos / pageNanos);
+        window = Math.max(1, Math.min(Math.min(target, window + 1), maxPages));
+        if (task != null && !task.isDone()) return;
+        int missing = window - ahead.size();
+        if (missing <= 0) return;
+        if (ahead.isEmpty()) {
+            frontier = id;
+            frontierPage = page;
+            frontierPosition = position;
+        }
+        final PageId from = frontier;
+        final Page fromPage = frontierPage;
+        final long fromPosition = frontierPosition;
+        task = io.submit(() -> readAhead(from, fromPage, fromPosition, missing));
+    }
+
+    private void readAhead(PageId id, Page page, long at, int n) {
+        try {
+            for (int i = 0; i < n && !closed; i++) {
+                // a scan that got there first has read the page itself
+                if (at + 1 <= position) return;
+                PageId next = successor.next(id, page);
+                if (next == null) return;
+                long start = System.nanoTime();
+                Page p = pool.prefetch(next, ring);
+                if (p == null) return;
+                long took = System.nanoTime() - start;
+                readNanos = readNanos == 0 ? took : 0.75 * readNanos + 0.25 * took;
+                ahead.add(next);
+                frontier = id = next;
+                frontierPage = page = p;
+                frontierPosition = ++at;
+            }
+        } catch (Exception e) {
+            // reading ahead is only a hint; the scan reads the page itself
+        }
+    }
+
+    /**
+     * Stop reading ahead. Pages read ahead into the ring that the scan did
+     * not use are counted as wasted.
+     */
+    void close() {
+        closed = true;
+        if (task != null) task.cancel(false);
+        if (ring != null) pool.prefetchesWasted(ring.unusedReadAhead());
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.function.Function;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs room for a new one.
+ * <p>
+ * The BufferPool reports every page that enters the pool, every access
+ * to a resident page and every page that leaves the pool; the policy only
+ * keeps bookkeeping about page ids and never touches the pages themselves.
+ * Whether a given page may actually be evicted right now (e.g. it is
+ * dirty) is decided by the BufferPool and passed in to {@link #victim}.
+ * <p>
+ * The policy used by the static Database instance can be chosen with the
+ * system property <code>simpledb.ReplacementPolicy</code>, e.g.
+ * <code>-Dsimpledb.ReplacementPolicy=lru-k</code>.
+ *
+ * @Threadsafe
+ */
+public interface ReplacementPolicy {
+
+    /** Name of the system property used to select the default policy. */
+    String PROPERTY = "simpledb.ReplacementPolicy";
+
+    /** A page was read into the pool. */
+    void pageAdmitted(PageId pid);
+
+    /** A page already resident in the pool was requested again. */
+    void pageAccessed(PageId pid);
+
+    /** A page left the pool (evicted or discarded). */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next.
+     *
+     * @param evictable tells whether a resident page can be evicted at all
+     * @return the id of the page to evict, or null if no resident page is
+     *   evictable
+     */
+    PageId victim(Function<PageId, Boolean> evictable);
+
+    /**
+     * Create a policy by name. Known names are "clock" and "lru-k"
+     * (optionally followed by the value of K, e.g. "lru-3").
+     *
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    static ReplacementPolicy forName(String name) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("clock"))
+            return new ClockPolicy();
+        if (n.equals("lru-k"))
+            return new LruKPolicy(LruKPolicy.DEFAULT_K);
+        if (n.startsWith("lru-")) {
+            try {
+                return new LruKPolicy(Integer.parseInt(n.substring(4)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+
+    /** The policy selected by the system property, CLOCK if it is not set. */
+    static ReplacementPolicy fromSystemProperty() {
+        return forName(System.getProperty(PROPERTY, "clock"));
+    }
+}
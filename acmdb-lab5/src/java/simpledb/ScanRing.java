@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ScanRing is a small, private set of frames used by a full scan of a
+ * large table. Pages that the scan reads from disk are kept here instead
+ * of in the shared BufferPool and are recycled round-robin, so a single
+ * large scan cannot push the hot pages of other queries out of the pool.
+ * Pages that are already resident in the BufferPool are still served from
+ * there.
+ * <p>
+ * A ring belongs to exactly one iterator. The read-ahead of that iterator
+ * may fill it from another thread; a page that is being read into the
+ * ring is waited for instead of being read twice.
+ *
+ * @see BufferPool#getScanRing(int)
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ * @see ReadAhead
+ */
+public class ScanRing {
+
+    private final PageId[] ids;
+    private final Page[] frames;
+    /** frames read ahead that the scan has not asked for yet */
+    private final boolean[] ahead;
+    private final Set<PageId> loading = new HashSet<PageId>();
+    private int next = 0;
+
+    /**
+     * @param size the number of frames in the ring
+     */
+    public ScanRing(int size) {
+        ids = new PageId[size];
+        frames = new Page[size];
+        ahead = new boolean[size];
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    private int find(PageId pid) {
+        for (int i = 0; i < ids.length; i++)
+            if (pid.equals(ids[i])) return i;
+        return -1;
+    }
+
+    /**
+     * @return the page with the given id if it is held by the ring, or null;
+     *   waits for the page if it is being read into the ring
+     */
+    synchronized Page get(PageId pid) {
+        boolean interrupted = false;
+        while (loading.contains(pid)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        int i = find(pid);
+        return i < 0 ? null : frames[i];
+    }
+
+    /**
+     * Claim the read of a page into the ring.
+     *
+     * @return false if the page is held by the ring or already being read
+     */
+    synchronized boolean startLoading(PageId pid) {
+        if (loading.contains(pid) || find(pid) >= 0) return false;
+        loading.add(pid);
+        return true;
+    }
+
+    /** Give up a read claimed with {@link #startLoading} that failed. */
+    synchronized void cancelLoading(PageId pid) {
+        loading.remove(pid);
+        notifyAll();
+    }
+
+    /** Place a page in the ring, replacing the oldest page held. */
+    void put(Page p) {
+        put(p, false);
+    }
+
+    /**
+     * Place a page in the ring, replacing the oldest page held.
+     *
+     * @param readAhead whether the page was read ahead of the scan
+     * @return true if the page replaced was read ahead and never asked for
+     */
+    synchronized boolean put(Page p, boolean readAhead) {
+        boolean wasted = ahead[next];
+        ids[next] = p.getId();
+        frames[next] = p;
+        ahead[next] = readAhead;
+        next = (next + 1) % frames.length;
+        if (loading.remove(p.getId())) notifyAll();
+        return wasted;
+    }
+
+    /**
+     * @return true if the page was read ahead and this is the first time
+     *   the scan asks for it
+     */
+    synchronized boolean takeReadAhead(PageId pid) {
+        int i = find(pid);
+        if (i < 0 || !ahead[i]) return false;
+        ahead[i] = false;
+        return true;
+    }
+
+    /** Drop a page from the ring. */
+    synchronized void remove(PageId pid) {
+        int i = find(pid);
+        if (i < 0) return;
+        ids[i] = null;
+        frames[i] = null;
+        ahead[i] = false;
+    }
+
+    /** @return the number of pages read ahead that the scan never asked for */
+    synchronized int unusedReadAhead() {
+        int n = 0;
+        for (boolean a : ahead)
+            if (a) n++;
+        return n;
+    }
+
+    /** Drop every page held by the ring. */
+    public synchronized void clear() {
+        for (int i = 0; i < frames.length; i++) {
+            ids[i] = null;
+            frames[i] = null;
+            ahead[i] = false;
+        }
+        next = 0;
+    }
+}
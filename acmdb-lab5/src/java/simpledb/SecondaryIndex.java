@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A SecondaryIndex is a B+ tree over one field of a {@link HeapFile} table.
+ * A BTreeFile is clustered on its key field and can only be searched on
+ * that field; a secondary index maps the values of any field of a table to
+ * the RecordIds of the tuples that have them, and a table may have one on
+ * each of its fields.
+ * <p>
+ * The index is stored in a BTreeFile of entries: the value of the field, and
+ * the page number and slot of the tuple, keyed on the value (see
+ * {@link #entryDesc}). The BTreeFile is added to the catalog as a table of
+ * its own, so its pages are read and locked through the buffer pool like
+ * those of any table. The buffer pool keeps the entries up to date as
+ * tuples are inserted into and deleted from the table, see
+ * {@link Catalog#getIndexes}.
+ *
+ * @see SecondaryIndexScan
+ */
+public class SecondaryIndex {
+
+    private final int tableid;
+    private final int field;
+    private final BTreeFile file;
+
+    /**
+     * Open a secondary index, creating its file if it does not exist.
+     *
+     * @param f the file of the index
+     * @param tableid the id of the HeapFile table, which must be in the
+     *   catalog
+     * @param field the field of the table the index is on
+     */
+    public SecondaryIndex(File f, int tableid, int field) {
+        this.tableid = tableid;
+        this.field = field;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        file = new BTreeFile(f, 0, entryDesc(td.getFieldType(field), td.getFieldName(field)));
+    }
+
+    /**
+     * @param keyType the type of the indexed field
+     * @param keyName the name of the indexed field
+     * @return the TupleDesc of the entries of an index on a field of the
+     *   given type: the value of the field, and the page number and slot
+     *   of the tuple
+     */
+    public static TupleDesc entryDesc(Type keyType, String keyName) {
+        return new TupleDesc(new Type[]{keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{keyName, "page", "slot"});
+    }
+
+    /** @return the id of the table the index is on */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the field of the table the index is on */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the BTreeFile that stores the entries */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * @param t a tuple of the table, with its RecordId set
+     * @return the entry of the tuple in the index
+     */
+    public Tuple entry(Tuple t) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setField(1, new IntField(t.getRecordId().getPageId().pageNumber()));
+        e.setField(2, new IntField(t.getRecordId().tupleno()));
+        return e;
+    }
+
+    /**
+     * @return the RecordId of the tuple an entry is for
+     */
+    public RecordId recordId(Tuple entry) {
+        return new RecordId(new HeapPageId(tableid, ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+
+    /**
+     * Find the entry of a tuple of the table in the index.
+     *
+     * @param t a tuple of the table, with its RecordId set
+     * @return the entry, as stored in the index with its RecordId set, or
+     *   null if the tuple has no entry
+     */
+    public Tuple findEntry(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        DbFileIterator it = file.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, t.getField(field)));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                if (recordId(e).equals(t.getRecordId())) return e;
+            }
+            return null;
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Write the entries of all the tuples of the table to the index, whose
+     * file must be empty. The index must be in the catalog. The entries are
+     * sorted and written as a B+ tree directly to the file, see
+     * {@link BTreeFileEncoder#bulkLoad}.
+     */
+    public void build() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            entries.add(entry(it.next()));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Collections.sort(entries, new BTreeFileEncoder.TupleComparator(0));
+        BTreeFileEncoder.bulkLoad(file, entries, BufferPool.getPageSize());
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan is an operator which reads the tuples of a HeapFile
+ * table that satisfy a predicate on an indexed field, by searching its
+ * {@link SecondaryIndex} and reading the page of each tuple found. The
+ * tuples are returned in the order of the indexed field.
+ */
+public class SecondaryIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private final String alias;
+    private transient DbFileIterator entries = null;
+    private transient Tuple next = null;
+
+    /**
+     * Creates a scan over a table through an index on it, as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to search
+     * @param tableAlias
+     *            the alias of the table (needed by the parser); the returned
+     *            tupleDesc has fields with name tableAlias.fieldName
+     * @param ipred
+     *            The index predicate to match. If null, the scan will return
+     *            all tuples in the order of the indexed field
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred) {
+        this.tid = tid;
+        this.index = index;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    /**
+     * @return the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the index this operator searches
+     */
+    SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the index predicate the tuples returned match, or null if the
+     *         scan returns all tuples
+     */
+    IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (entries != null)
+            throw new DbException("double open on one DbIterator.");
+        BTreeFile f = index.getFile();
+        entries = ipred == null ? f.iterator(tid) : f.indexIterator(tid, ipred);
+        entries.open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(index.getTableId(), alias);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (entries == null)
+            throw new IllegalStateException("iterator is closed");
+        while (next == null && entries.hasNext()) {
+            RecordId rid = index.recordId(entries.next());
+            HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(
+                    tid, rid.getPageId(), Permissions.READ_ONLY);
+            next = page.getTuple(rid.tupleno());
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        if (entries != null) entries.close();
+        entries = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
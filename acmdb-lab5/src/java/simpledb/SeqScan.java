@@ -15,6 +15,7 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private DbFileIterator it;
     private String alias;
+    private boolean[] columns = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -57,6 +58,20 @@ public class SeqScan implements DbIterator {
         return alias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -79,13 +94,25 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Tell the scan which fields of its tuples the operators above it use.
+     * A HeapFile in the {@link HeapFile#PAX} format then only decodes those
+     * columns, and leaves the other fields of the tuples it returns null.
+     *
+     * @param columns whether each field is used, or null if all are
+     */
+    public void setColumns(boolean[] columns) {
+        this.columns = columns == null ? null : columns.clone();
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        it = columns != null && f instanceof HeapFile ? ((HeapFile) f).iterator(tid, columns) : f.iterator(tid);
         it.open();
     }
 
-    private String nu(String s) {
+    private static String nu(String s) {
         return s == null ? "null" : s;
     }
 
@@ -101,12 +128,20 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        return aliasedTupleDesc(tableid, alias);
+    }
+
+    /**
+     * @return the TupleDesc of a table with its field names prefixed with
+     *   the given alias, as {@link #getTupleDesc()} returns it
+     */
+    static TupleDesc aliasedTupleDesc(int tableid, String alias) {
         TupleDesc old = Database.getCatalog().getDatabaseFile(tableid).getTupleDesc();
         Type[] t = new Type[old.numFields()];
         String[] s = new String[old.numFields()];
         for (int i = 0; i < old.numFields(); i++) {
             t[i] = old.getFieldType(i);
-            s[i] = nu(alias).concat(nu(old.getFieldName(i)));
+            s[i] = nu(alias) + "." + nu(old.getFieldName(i));
         }
         return new TupleDesc(t, s);
     }
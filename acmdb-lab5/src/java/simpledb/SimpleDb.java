@@ -1,5 +1,6 @@
 package simpledb;
 import java.io.*;
+import java.util.*;
 
 public class SimpleDb {
     public static void main (String args[])
@@ -7,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -43,7 +44,13 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            // a sixth argument "slotted" writes SlottedHeapPages, "pax" PaxPages
+            if (args.length==6 && args[5].equals(HeapFile.SLOTTED))
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,ts,fieldSeparator);
+            else if (args.length==6 && args[5].equals(HeapFile.PAX))
+                HeapFileEncoder.convertPax(sourceTxtFile,targetDatFile,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
@@ -67,6 +74,32 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("scrub")) {
+            // check the pages of every table of a catalog against their checksums
+            if (args.length != 2) {
+                System.err.println("Usage: scrub <catalog file>");
+                System.exit(1);
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            List<Integer> ids = new ArrayList<Integer>();
+            Database.getCatalog().tableIdIterator().forEachRemaining(ids::add);
+            long damaged = ids.parallelStream().mapToLong(id -> {
+                DbFile f = Database.getCatalog().getDatabaseFile(id);
+                String name = Database.getCatalog().getTableName(id);
+                try {
+                    List<Integer> bad = f instanceof HeapFile ? ((HeapFile) f).scrub()
+                            : f instanceof BTreeFile ? ((BTreeFile) f).scrub()
+                            : Collections.<Integer>emptyList();
+                    System.out.println(name + ": " + (bad.isEmpty() ? "OK" : "damaged pages " + bad));
+                    return bad.size();
+                } catch (IOException e) {
+                    System.out.println(name + ": " + e);
+                    return 1;
+                }
+            }).sum();
+            if (damaged > 0)
+                System.exit(1);
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a page of a HeapFile that stores tuples as
+ * variable-length records, so that strings only take the space of their
+ * characters instead of {@link Type#STRING_LEN} bytes.
+ * <p>
+ * The page starts with a header of two shorts: the number of entries in
+ * the slot directory, and the offset where the record area begins (0 on an
+ * empty page, meaning the end of the page). The slot directory follows,
+ * one entry of two shorts per slot: the offset and the length of the
+ * record, or 0 and 0 for an empty slot. Records are packed at the end of
+ * the page and grow towards the directory. A record holds its fields in
+ * order: an int as 4 bytes, a string as a short length followed by its
+ * characters.
+ * <p>
+ * The slot number is the tuple number of a RecordId, so it does not change
+ * while the tuple is on the page. Deleting a tuple compacts the record
+ * area right away, so the free space is always contiguous.
+ *
+ * @see HeapFile
+ */
+public class SlottedHeapPage implements HeapFilePage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final byte[] data;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private volatile long lsn = 0;
+    private long oldLsn = 0;
+    private boolean dirty = false;
+    private TransactionId dirtyID = null;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. A page of zeroes is empty.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedHeapPage of a table that is not in the catalog.
+     */
+    SlottedHeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        if (data.length != BufferPool.getPageSize())
+            throw new IOException("page data is " + data.length + " bytes");
+        this.pid = id;
+        this.td = td;
+        this.data = data.clone();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of bytes an insert of t needs on a page, including
+     *   a new slot directory entry
+     */
+    public static int spaceFor(Tuple t) {
+        return recordLength(t) + SLOT_SIZE;
+    }
+
+    private static int recordLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                len += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                len += td.getFieldType(i).getLen();
+        }
+        return len;
+    }
+
+    private int getShort(int off) {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    private void putShort(int off, int v) {
+        data[off] = (byte) (v >> 8);
+        data[off + 1] = (byte) v;
+    }
+
+    private int numSlots() {
+        return getShort(0);
+    }
+
+    private int recordStart() {
+        int start = getShort(2);
+        return start == 0 ? data.length : start;
+    }
+
+    private int slotOffset(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            long oldLsnRef;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+                oldLsnRef = oldLsn;
+            }
+            SlottedHeapPage p = new SlottedHeapPage(pid,oldDataRef,td);
+            p.setLSN(oldLsnRef);
+            return p;
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        oldLsn = lsn;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Returns the number of free bytes between the slot directory and the
+     * records.
+     */
+    public int getFreeSpace() {
+        return recordStart() - HEADER_SIZE - numSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or in a
+     * new one.
+     *
+     * @throws DbException if the page does not have room for the tuple
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc mismatch");
+        int len = recordLength(t);
+        int n = numSlots();
+        int slot = 0;
+        while (slot < n && slotOffset(slot) != 0) slot++;
+        int need = len + (slot == n ? SLOT_SIZE : 0);
+        if (need > getFreeSpace())
+            throw new DbException("full");
+
+        int off = recordStart() - len;
+        int p = off;
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int sl = Math.min(s.length(), Type.STRING_LEN);
+                putShort(p, sl);
+                for (int j = 0; j < sl; j++) data[p + 2 + j] = (byte) s.charAt(j);
+                p += 2 + sl;
+            } else {
+                int v = ((IntField) f).getValue();
+                data[p] = (byte) (v >> 24);
+                data[p + 1] = (byte) (v >> 16);
+                data[p + 2] = (byte) (v >> 8);
+                data[p + 3] = (byte) v;
+                p += 4;
+            }
+        }
+        if (slot == n) putShort(0, n + 1);
+        putShort(2, off);
+        setSlot(slot, off, len);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page and move the records before
+     * it up to close the gap.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno()))
+            throw new DbException("non existing");
+        int slot = rid.tupleno();
+        int off = slotOffset(slot), len = slotLength(slot);
+        int start = recordStart();
+
+        System.arraycopy(data, start, data, start + len, off - start);
+        Arrays.fill(data, start, start + len, (byte) 0);
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            int o = slotOffset(i);
+            if (o != 0 && o < off) setSlot(i, o + len, slotLength(i));
+        }
+        setSlot(slot, 0, 0);
+        // empty slots at the end of the directory are given back
+        while (n > 0 && slotOffset(n - 1) == 0) n--;
+        putShort(0, n);
+        putShort(2, start + len == data.length ? 0 : start + len);
+    }
+
+    /** Decode the record in a used slot. */
+    private Tuple readTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int p = slotOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int sl = getShort(p);
+                t.setField(i, new StringField(new String(data, p + 2, sl), Type.STRING_LEN));
+                p += 2 + sl;
+            } else {
+                t.setField(i, new IntField(((data[p] & 0xff) << 24) | ((data[p + 1] & 0xff) << 16)
+                        | ((data[p + 2] & 0xff) << 8) | (data[p + 3] & 0xff)));
+                p += 4;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyID = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtyID : null;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> ret = new ArrayList<Tuple>();
+        int n = numSlots();
+        for (int i = 0; i < n; i++)
+            if (slotOffset(i) != 0) ret.add(readTuple(i));
+        return Collections.unmodifiableList(ret).iterator();
+    }
+}
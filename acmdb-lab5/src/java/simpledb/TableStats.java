@@ -151,7 +151,61 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return ((HeapFile)f).numPages() * ioCost;
+        return numPages() * ioCost;
+    }
+
+    private int numPages() {
+        return f instanceof BTreeFile ? ((BTreeFile) f).numPages() : ((HeapFile) f).numPages();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on
+     * the key field of a table stored in a {@link BTreeFile} through its
+     * index: the pages from the root down to the first leaf, about one per
+     * level of a tree with as many entries per internal page as keys of the
+     * key field fit, plus the leaves that hold the matching tuples, about
+     * the fraction selectivity of the pages of the file.
+     *
+     * @param selectivity the selectivity of the predicate on the key field
+     * @return the estimated cost of the index scan, or infinity if the table
+     *   has no index
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        if (!(f instanceof BTreeFile))
+            return Double.POSITIVE_INFINITY;
+        BTreeFile bf = (BTreeFile) f;
+        int pages = Math.max(numPages(), 1);
+        return (levels(bf, pages) + Math.ceil(selectivity * pages)) * ioCost;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on
+     * the indexed field through a {@link SecondaryIndex} on this table: the
+     * pages from the root of the index down to the first leaf and the leaves
+     * that hold the matching entries, as for
+     * {@link #estimateIndexScanCost}, plus one page for each matching tuple,
+     * as the tuples are not in the order of the index.
+     *
+     * @param index the index, on this table
+     * @param selectivity the selectivity of the predicate on the indexed
+     *   field
+     * @return the estimated cost of the index scan
+     */
+    public double estimateSecondaryIndexScanCost(SecondaryIndex index, double selectivity) {
+        int pages = Math.max(index.getFile().numPages(), 1);
+        return (levels(index.getFile(), pages) + Math.ceil(selectivity * pages)
+                + Math.ceil(selectivity * numTuples)) * ioCost;
+    }
+
+    /**
+     * @return the number of levels of a B+ tree of the given number of
+     *   pages, with as many entries per internal page as keys of its key
+     *   field fit
+     */
+    private static double levels(BTreeFile bf, int pages) {
+        int keyLen = bf.getTupleDesc().getFieldType(bf.keyField()).getLen();
+        double fanout = BufferPool.getPageSize() * 8.0 / ((keyLen + BTreePage.INDEX_SIZE) * 8 + 1);
+        return Math.max(1, Math.ceil(Math.log(pages) / Math.log(fanout)));
     }
 
     /**
@@ -103,6 +103,7 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
         throws IOException {
         File f = new File(path);
+        deleteSidecars(f);
         // touch the file
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
@@ -145,6 +146,43 @@ public class Utility {
         return hf;
     }
 
+    /**
+     * Suffixes of the files a DbFile keeps next to its data file, see
+     * {@link PageLsns}, {@link FreeSpaceMap}, {@link PageChecksums} and
+     * {@link CompressedPageIO}.
+     */
+    private static final String[] SIDECARS = {PageLsns.SUFFIX, FreeSpaceMap.SUFFIX,
+            PageChecksums.SUFFIX, CompressedPageIO.SUFFIX};
+
+    /**
+     * Delete the files a DbFile keeps next to a data file, for a data file
+     * that is about to be written from scratch.
+     */
+    public static void deleteSidecars(File f) {
+        for (String suffix : SIDECARS)
+            new File(f.getPath() + suffix).delete();
+    }
+
+    /**
+     * Delete a data file and the files kept next to it.
+     *
+     * @return true if the data file was deleted
+     */
+    public static boolean delete(File f) {
+        deleteSidecars(f);
+        return f.delete();
+    }
+
+    /**
+     * Mark a data file and the files kept next to it, which may not exist
+     * yet, to be deleted when the virtual machine exits.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        for (String suffix : SIDECARS)
+            new File(f.getPath() + suffix).deleteOnExit();
+    }
+
     public static String listToString(ArrayList<Integer> list) {
         String out = "";
         for (Integer i : list) {
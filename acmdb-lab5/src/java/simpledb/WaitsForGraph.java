@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * WaitsForGraph is the waits-for graph of the LockManager. It is maintained
+ * incrementally: the outgoing edges of a lock request are set when it blocks
+ * (or is woken and is still blocked), and removed when the request is
+ * granted or withdrawn. Nothing is rebuilt from the lock table.
+ * <p>
+ * A transaction may have several requests blocked at once, one per thread
+ * working for it (see {@link ParallelSeqScan}); its outgoing edges are the
+ * union of those of its requests.
+ *
+ * @Threadsafe
+ */
+public class WaitsForGraph {
+
+    private final HashMap<TransactionId, Set<TransactionId>> edges = new HashMap<>();
+    /** the blocked requests of each waiting transaction, with their edges */
+    private final HashMap<TransactionId, HashMap<Object, Set<TransactionId>>> requests = new HashMap<>();
+    private final HashMap<TransactionId, Long> since = new HashMap<>();
+    private long version = 0;
+
+    /**
+     * Record that a request of tid is waiting for the given transactions,
+     * replacing the edges the request had before.
+     *
+     * @param request the blocked request, which identifies it among the
+     *   requests of tid
+     */
+    public synchronized void setWaiting(TransactionId tid, Object request, Set<TransactionId> blockers) {
+        HashMap<Object, Set<TransactionId>> rs = requests.get(tid);
+        if (rs == null) {
+            rs = new HashMap<>();
+            requests.put(tid, rs);
+            since.put(tid, System.nanoTime());
+        }
+        rs.put(request, blockers);
+        union(tid, rs);
+        version++;
+    }
+
+    /**
+     * Remove the outgoing edges of a request of tid; it is no longer
+     * waiting. tid is no longer waiting once none of its requests is.
+     */
+    public synchronized void removeWaiter(TransactionId tid, Object request) {
+        HashMap<Object, Set<TransactionId>> rs = requests.get(tid);
+        if (rs == null || rs.remove(request) == null) return;
+        if (rs.isEmpty()) {
+            requests.remove(tid);
+            edges.remove(tid);
+            since.remove(tid);
+        } else {
+            union(tid, rs);
+        }
+    }
+
+    private void union(TransactionId tid, HashMap<Object, Set<TransactionId>> rs) {
+        if (rs.size() == 1) {
+            edges.put(tid, rs.values().iterator().next());
+            return;
+        }
+        HashSet<TransactionId> all = new HashSet<>();
+        for (Set<TransactionId> blockers : rs.values()) all.addAll(blockers);
+        edges.put(tid, all);
+    }
+
+    /**
+     * @return a counter that changes whenever edges are added; a cycle can
+     *   only appear when it changes
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return System.nanoTime() of when tid started waiting, or -1 if it
+     *   is not waiting
+     */
+    public synchronized long waitingSince(TransactionId tid) {
+        Long t = since.get(tid);
+        return t == null ? -1 : t;
+    }
+
+    /**
+     * Find a cycle that goes through tid.
+     *
+     * @return the transactions on the cycle, starting with tid, or null if
+     *   tid is not on a cycle
+     */
+    public synchronized List<TransactionId> findCycleThrough(TransactionId tid) {
+        ArrayList<TransactionId> path = new ArrayList<>();
+        path.add(tid);
+        return extend(path, tid, new HashSet<TransactionId>()) ? path : null;
+    }
+
+    private boolean extend(ArrayList<TransactionId> path, TransactionId target, HashSet<TransactionId> visited) {
+        Set<TransactionId> next = edges.get(path.get(path.size() - 1));
+        if (next == null) return false;
+        for (TransactionId t : next) {
+            if (t.equals(target)) return true;
+            if (!visited.add(t)) continue;
+            path.add(t);
+            if (extend(path, target, visited)) return true;
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Find cycles in the graph, ignoring the transactions in skip. At most
+     * one cycle is reported for each group of transactions found on a single
+     * depth-first search, so after aborting one victim per cycle the caller
+     * should search again. Used by the background detector.
+     *
+     * @return a list of cycles, each a list of transactions
+     */
+    public synchronized List<List<TransactionId>> findCycles(Set<TransactionId> skip) {
+        List<List<TransactionId>> ret = new ArrayList<>();
+        HashSet<TransactionId> done = new HashSet<>(skip);
+        for (TransactionId start : edges.keySet()) {
+            if (done.contains(start)) continue;
+            // iterative DFS keeping the current path on a stack
+            ArrayList<TransactionId> path = new ArrayList<>();
+            HashMap<TransactionId, Integer> onPath = new HashMap<>();
+            ArrayList<Iterator<TransactionId>> its = new ArrayList<>();
+            path.add(start);
+            onPath.put(start, 0);
+            its.add(edges.get(start).iterator());
+            while (!path.isEmpty()) {
+                Iterator<TransactionId> it = its.get(its.size() - 1);
+                if (!it.hasNext()) {
+                    TransactionId t = path.remove(path.size() - 1);
+                    onPath.remove(t);
+                    done.add(t);
+                    its.remove(its.size() - 1);
+                    continue;
+                }
+                TransactionId t = it.next();
+                if (done.contains(t)) continue;
+                Integer pos = onPath.get(t);
+                if (pos != null) {
+                    ret.add(new ArrayList<>(path.subList(pos, path.size())));
+                    // do not look for more cycles among these transactions
+                    done.addAll(path);
+                    break;
+                }
+                Set<TransactionId> next = edges.get(t);
+                if (next == null) {
+                    done.add(t);
+                    continue;
+                }
+                onPath.put(t, path.size());
+                path.add(t);
+                its.add(next.iterator());
+            }
+        }
+        return ret;
+    }
+}
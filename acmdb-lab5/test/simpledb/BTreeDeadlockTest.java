@@ -7,6 +7,8 @@ import simpledb.systemtest.SimpleDbTestBase;
 import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
+
+import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
 public class BTreeDeadlockTest extends SimpleDbTestBase {
@@ -134,6 +136,113 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 		System.out.println("testReadWriteDeadlock resolved deadlock");
 	}
 
+	/**
+	 * Count the tuples with the given key that tid sees through the index.
+	 */
+	private int countKey(TransactionId tid, int key) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * A writer that split the root and has not committed yet does not keep another
+	 * transaction from searching a leaf the writer did not change, and the search
+	 * locks only that leaf. Once the writer aborts, its split is gone.
+	 */
+	@Test public void testReadDuringRootSplit() throws Exception {
+		// the right-most leaf splits, and with it the root; the left half of the
+		// root keeps its children, so the left-most leaf is not touched
+		int right = BTreeUtility.MAX_RAND_VALUE - 1;
+		final int left = 0;
+		TransactionId tid0 = new TransactionId();
+		int rightCount = countKey(tid0, right);
+		final int leftCount = countKey(tid0, left);
+		bp.transactionComplete(tid0);
+
+		TransactionId tid1 = new TransactionId();
+		int inserts = BTreeUtility.getNumTuplesPerPage(2) + 1;
+		for (int i = 0; i < inserts; i++)
+			bp.insertTuple(tid1, bf.getId(), BTreeUtility.getBTreeTuple(right, 2));
+
+		final TransactionId tid2 = new TransactionId();
+		final int[] found = {-1};
+		Thread reader = new Thread(() -> {
+			try {
+				found[0] = countKey(tid2, left);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		reader.setDaemon(true);
+		reader.start();
+		reader.join(10 * 1000);
+		assertFalse("the reader waited for the writer", reader.isAlive());
+		assertEquals(leftCount, found[0]);
+		assertFalse(bp.holdsLock(tid2, BTreeRootPtrPage.getId(bf.getId())));
+		bp.transactionComplete(tid2);
+
+		bp.transactionComplete(tid1, false);
+		TransactionId tid3 = new TransactionId();
+		assertEquals(rightCount, countKey(tid3, right));
+		assertEquals(leftCount, countKey(tid3, left));
+		bp.transactionComplete(tid3);
+	}
+
+	/**
+	 * A BTreeFile on the same file whose first descent to a leaf is overtaken by
+	 * another transaction splitting the right-most leaf, after the internal pages
+	 * were read and before the leaf is locked.
+	 */
+	private static class SplitBeforeLeafLock extends BTreeFile {
+		BTreePageId stale = null;
+
+		SplitBeforeLeafLock(BTreeFile bf) {
+			super(bf.getFile(), bf.keyField(), bf.getTupleDesc());
+		}
+
+		@Override
+		Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+				Permissions perm) throws DbException, TransactionAbortedException {
+			if (stale == null && pid.pgcateg() == BTreePageId.LEAF) {
+				stale = pid;
+				TransactionId writer = new TransactionId();
+				try {
+					for (int i = 0; i <= BTreeUtility.getNumTuplesPerPage(2); i++)
+						Database.getBufferPool().insertTuple(writer, getId(),
+								BTreeUtility.getBTreeTuple(BTreeUtility.MAX_RAND_VALUE + 50, 2));
+					Database.getBufferPool().transactionComplete(writer);
+				} catch (java.io.IOException e) {
+					throw new DbException("could not split the leaf: " + e);
+				}
+			}
+			return super.getPage(tid, dirtypages, pid, perm);
+		}
+	}
+
+	/**
+	 * An optimistic descent that fails its check does not keep the lock it took on
+	 * the leaf it reached.
+	 */
+	@Test public void testFailedDescentReleasesLeaf() throws Exception {
+		SplitBeforeLeafLock f = new SplitBeforeLeafLock(bf);
+		Database.getCatalog().addTable(f, "split");
+		TransactionId tid = new TransactionId();
+		BTreeLeafPage leaf = f.findLeafPage(tid, new HashMap<PageId, Page>(), Permissions.READ_WRITE,
+				new IntField(BTreeUtility.MAX_RAND_VALUE + 100));
+		assertNotNull(f.stale);
+		assertFalse(f.stale.equals(leaf.getId()));
+		assertTrue(bp.holdsLock(tid, leaf.getId()));
+		assertFalse(bp.holdsLock(tid, f.stale));
+		bp.transactionComplete(tid);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
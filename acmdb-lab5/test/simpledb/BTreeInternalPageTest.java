@@ -313,6 +313,46 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * The child findChild finds by binary search, as the linear search
+	 * through the entries would find it.
+	 */
+	private static BTreePageId linearFindChild(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			if (f == null || f.compare(Predicate.Op.LESS_THAN_OR_EQ, e.getKey()))
+				return e.getLeftChild();
+		}
+		return e == null ? null : e.getRightChild();
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChild(), also after entries are
+	 * deleted
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		ArrayList<Field> probes = new ArrayList<Field>();
+		probes.add(null);
+		probes.add(new IntField(Integer.MIN_VALUE));
+		probes.add(new IntField(Integer.MAX_VALUE));
+		for (int[] entry : EXAMPLE_VALUES)
+			for (int d = -1; d <= 1; d++)
+				probes.add(new IntField(entry[1] + d));
+
+		Iterator<BTreeEntry> it = page.iterator();
+		LinkedList<BTreeEntry> entries = new LinkedList<BTreeEntry>();
+		while (it.hasNext())
+			entries.add(it.next());
+		while (entries.size() > 1) {
+			for (Field f : probes)
+				assertEquals(String.valueOf(f), linearFindChild(page, f), page.findChild(f));
+			page.deleteKeyAndRightChild(entries.remove(entries.size() / 2));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
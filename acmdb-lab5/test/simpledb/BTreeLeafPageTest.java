@@ -336,6 +336,40 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field), also after tuples are
+	 * deleted
+	 */
+	@Test public void iteratorFrom() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		ArrayList<Field> probes = new ArrayList<Field>();
+		probes.add(new IntField(Integer.MIN_VALUE));
+		probes.add(new IntField(Integer.MAX_VALUE));
+		for (int[] tuple : EXAMPLE_VALUES)
+			for (int d = -1; d <= 1; d++)
+				probes.add(new IntField(tuple[0] + d));
+
+		Iterator<Tuple> it = page.iterator();
+		LinkedList<Tuple> tuples = new LinkedList<Tuple>();
+		while (it.hasNext())
+			tuples.add(it.next());
+		while (!tuples.isEmpty()) {
+			for (Field f : probes) {
+				ArrayList<Tuple> expected = new ArrayList<Tuple>();
+				for (Iterator<Tuple> all = page.iterator(); all.hasNext(); ) {
+					Tuple t = all.next();
+					if (t.getField(0).compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+						expected.add(t);
+				}
+				ArrayList<Tuple> actual = new ArrayList<Tuple>();
+				for (Iterator<Tuple> from = page.iterator(f); from.hasNext(); )
+					actual.add(from.next());
+				assertEquals(f.toString(), expected, actual);
+			}
+			page.deleteTuple(tuples.remove(tuples.size() / 2));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedPageIOTest extends SimpleDbTestBase {
+
+    private static final int PAGE = BufferPool.getPageSize();
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("compressed", ".dat");
+        Utility.deleteOnExit(f);
+        return f;
+    }
+
+    /** A page that is mostly zeros, like a page of padded strings. */
+    private static byte[] sparsePage(int seed) {
+        byte[] b = new byte[PAGE];
+        for (int i = 0; i < PAGE; i += 132)
+            b[i] = (byte) (seed + i);
+        return b;
+    }
+
+    private static byte[] randomPage(int seed) {
+        byte[] b = new byte[PAGE];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    /**
+     * Pages read back as written, including after the file is opened
+     * again, and take a fraction of their size on disk; a page of zeros
+     * takes nothing.
+     */
+    @Test public void readWrite() throws Exception {
+        File f = tempFile();
+        try (CompressedPageIO io = new CompressedPageIO(f, PAGE)) {
+            io.write(0, sparsePage(1));
+            byte[] two = new byte[2 * PAGE];
+            System.arraycopy(sparsePage(2), 0, two, 0, PAGE);
+            io.write(2 * PAGE, two);
+            assertEquals(4 * PAGE, io.length());
+            assertTrue(io.physicalLength() < PAGE);
+        }
+        try (CompressedPageIO io = new CompressedPageIO(f, PAGE)) {
+            assertEquals(4 * PAGE, io.length());
+            byte[] buf = new byte[PAGE];
+            assertEquals(PAGE, io.read(0, buf));
+            assertArrayEquals(sparsePage(1), buf);
+            io.read(PAGE, buf);
+            assertArrayEquals(new byte[PAGE], buf);
+            io.read(2 * PAGE, buf);
+            assertArrayEquals(sparsePage(2), buf);
+            assertEquals(-1, io.read(4 * PAGE, buf));
+        }
+    }
+
+    /**
+     * A page rewritten with data that does not compress moves to a larger
+     * slot and is stored as it is; the other pages are not disturbed.
+     */
+    @Test public void rewriteGrows() throws Exception {
+        File f = tempFile();
+        try (CompressedPageIO io = new CompressedPageIO(f, PAGE)) {
+            io.write(0, sparsePage(1));
+            io.write(PAGE, sparsePage(2));
+            io.write(0, randomPage(3));
+            io.write(PAGE, sparsePage(4));
+            byte[] buf = new byte[PAGE];
+            io.read(0, buf);
+            assertArrayEquals(randomPage(3), buf);
+            io.read(PAGE, buf);
+            assertArrayEquals(sparsePage(4), buf);
+        }
+    }
+
+    /** Only whole pages can be read and written. */
+    @Test public void wholePages() throws Exception {
+        try (CompressedPageIO io = new CompressedPageIO(tempFile(), PAGE)) {
+            io.write(10, new byte[PAGE]);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A HeapFile on a compressed copy of its file has the same pages and
+     * tuples, in less space, and takes inserts.
+     */
+    @Test public void heapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile raw = SystemTestUtil.createRandomHeapFile(3, 5000, 10, null, tuples);
+        File f = tempFile();
+        f.delete();
+        CompressedPageIO.compress(raw.getFile(), f, PAGE);
+        assertTrue(f.length() < raw.getFile().length() / 2);
+
+        HeapFile hf = new HeapFile(f, raw.getTupleDesc(), "compressed");
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(raw.numPages(), hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> t = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++) t.add(-1);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{-1, -1, -1}));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tuples.add(t);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageIOTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    /**
+     * Commit one transaction on each of the given threads at the same time.
+     *
+     * @return the number of forces the commits needed
+     */
+    private static long commitConcurrently(LogFile log, int threads) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> committers = new ArrayList<Thread>();
+        ArrayList<Exception> errors = new ArrayList<Exception>();
+        long before = log.getForceCount();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    log.logXactionBegin(tid);
+                    start.await();
+                    log.logCommit(tid);
+                    assertTrue(log.getForceCount() > before);
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            committers.add(t);
+        }
+        start.countDown();
+        for (Thread t : committers) t.join();
+        assertTrue(errors.isEmpty());
+        return log.getForceCount() - before;
+    }
+
+    /**
+     * Concurrent commits share forces of the log.
+     */
+    @Test public void commitsShareForces() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(50);
+        long forces = commitConcurrently(log, 16);
+        assertTrue(forces >= 1);
+        assertTrue("16 commits took " + forces + " forces", forces < 16);
+        assertEquals(16 * 2, log.getTotalRecords());
+    }
+
+    /**
+     * Without a delay every commit still waits for a force.
+     */
+    @Test public void commitWaitsForForce() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(0);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long before = log.getForceCount();
+        log.logCommit(tid);
+        assertTrue(log.getForceCount() > before);
+        assertTrue(commitConcurrently(log, 8) <= 8);
+    }
+
+    /**
+     * A force requested while holding the log's lock does not wait for the
+     * flusher, which needs that lock.
+     */
+    @Test public void nestedForce() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(1000);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long before = log.getForceCount();
+        synchronized (log) {
+            log.force();
+        }
+        assertEquals(before + 1, log.getForceCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,114 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts go to a page with room without locking the full pages before
+     * it, also after the file is opened again.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        for (int i = 0; i < 504 * 2 + 1; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        BufferPool bp = Database.getBufferPool();
+        bp.transactionComplete(tid);
+        bp.flushCommittedPages();
+
+        TransactionId t2 = new TransactionId();
+        empty.insertTuple(t2, Utility.getHeapTuple(1, 2));
+        assertFalse(bp.holdsLock(t2, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(t2, new HeapPageId(empty.getId(), 1)));
+        assertTrue(bp.holdsLock(t2, new HeapPageId(empty.getId(), 2)));
+        bp.transactionComplete(t2);
+        bp.flushCommittedPages();
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId t3 = new TransactionId();
+        reopened.insertTuple(t3, Utility.getHeapTuple(2, 2));
+        assertFalse(bp.holdsLock(t3, new HeapPageId(empty.getId(), 0)));
+        assertTrue(bp.holdsLock(t3, new HeapPageId(empty.getId(), 2)));
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * A page that is full although the map does not know it is skipped.
+     */
+    @Test public void staleMapEntry() throws Exception {
+        for (int i = 0; i < 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        // a second, full page written behind the map's back
+        HeapPage full = new HeapPage(new HeapPageId(empty.getId(), 1), HeapPage.createEmptyPageData());
+        for (int i = 0; i < 504; ++i)
+            full.insertTuple(Utility.getHeapTuple(i, 2));
+        HeapFile other = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        other.writePage(full);
+
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * A page whose write was torn fails its checksum when it is read, also
+     * through the buffer pool, and scrub finds it; the other pages still
+     * read.
+     */
+    @Test public void tornPage() throws Exception {
+        for (int i = 0; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        BufferPool bp = Database.getBufferPool();
+        bp.transactionComplete(tid);
+        bp.flushCommittedPages();
+        assertEquals(Arrays.asList(), empty.scrub());
+
+        // the second half of page 1 never made it to disk
+        int pageSize = BufferPool.getPageSize();
+        try (RandomAccessFile raf = new RandomAccessFile(empty.getFile(), "rw")) {
+            raf.seek(pageSize + pageSize / 2);
+            raf.write(new byte[pageSize / 2]);
+        }
+        assertEquals(Arrays.asList(1), empty.scrub());
+        assertNotNull(empty.readPage(new HeapPageId(empty.getId(), 0)));
+        try {
+            empty.readPage(new HeapPageId(empty.getId(), 1));
+            fail("expected the torn page to fail its checksum");
+        } catch (DbException e) {
+            assertTrue(e.getCause() instanceof ChecksumException);
+            assertEquals(1, ((ChecksumException) e.getCause()).getPageNumber());
+        }
+
+        bp.discardPage(new HeapPageId(empty.getId(), 1));
+        TransactionId reader = new TransactionId();
+        try {
+            bp.getPage(reader, new HeapPageId(empty.getId(), 1), Permissions.READ_ONLY);
+            fail("expected the torn page to fail its checksum");
+        } catch (DbException e) {
+            assertTrue(e.getCause() instanceof ChecksumException);
+        } finally {
+            bp.transactionComplete(reader);
+        }
+    }
+
+    /**
+     * New pages come from an extent the file grows by at once; the pages of
+     * the extent that were never used do not count when the file is
+     * opened again.
+     */
+    @Test public void preallocatedExtent() throws Exception {
+        for (int i = 0; i < 504 + 1; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+        int pageSize = BufferPool.getPageSize();
+        assertEquals(PageExtents.EXTENT_PAGES * pageSize, empty.getFile().length());
+
+        BufferPool bp = Database.getBufferPool();
+        bp.transactionComplete(tid);
+        bp.flushCommittedPages();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+        assertEquals(PageExtents.EXTENT_PAGES * pageSize, empty.getFile().length());
+    }
+
     /**
      * JUnit suite target
      */
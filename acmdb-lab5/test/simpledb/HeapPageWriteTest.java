@@ -1,9 +1,11 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,40 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples handed out by a page keep their values when their slot is
+     * deleted and reused, and the data the page was created from is not
+     * changed.
+     */
+    @Test public void tuplesSurviveSlotReuse() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple first = page.iterator().next();
+        int value = ((IntField) first.getField(0)).getValue();
+
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(value + 1, 2));
+        assertEquals(first.getRecordId().tupleno(), page.iterator().next().getRecordId().tupleno());
+        assertEquals(value, ((IntField) first.getField(0)).getValue());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A page can be read from a direct buffer, and its data round-trips.
+     */
+    @Test public void directBuffer() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        buf.put(HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage page = new HeapPage(pid, buf);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,221 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexJoinTest extends SimpleDbTestBase {
+
+    private static final int INNER_ROWS = 10000;
+    private static final int OUTER_ROWS = 20;
+    private static final int MAX_VALUE = 10000;
+
+    private BTreeFile inner;
+    private HeapFile outer;
+    private TransactionId tid;
+
+    /**
+     * Create a B+ tree table keyed on its first field c0, and a small heap
+     * table with fields h0 and h1 to join with it.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, INNER_ROWS, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), 0);
+        inner = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(inner, "idx");
+        outer = SystemTestUtil.createRandomHeapFile(2, OUTER_ROWS, MAX_VALUE / 20, null,
+                new ArrayList<ArrayList<Integer>>(), "h");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private DbIterator outerScan() {
+        return new SeqScan(tid, outer.getId(), "o");
+    }
+
+    private BTreeScan innerScan(IndexPredicate ipred) {
+        return new BTreeScan(tid, inner.getId(), "i", ipred);
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    /**
+     * An IndexJoin returns the tuples a Join of the same children returns.
+     */
+    private void matchesJoin(JoinPredicate p, DbIterator innerPlan, DbIterator sameInnerPlan)
+            throws Exception {
+        ArrayList<ArrayList<Integer>> expected = rows(new Join(p, outerScan(), sameInnerPlan));
+        assertFalse(expected.isEmpty());
+        IndexJoin join = new IndexJoin(p, outerScan(), innerPlan);
+        SystemTestUtil.matchTuples(join, expected);
+        // and again after a rewind
+        join.open();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        assertEquals(expected.size(), n);
+    }
+
+    @Test public void eqJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        matchesJoin(p, innerScan(null), innerScan(null));
+    }
+
+    @Test public void rangeJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        matchesJoin(p, innerScan(null), innerScan(null));
+        p = new JoinPredicate(1, Predicate.Op.LESS_THAN_OR_EQ, 0);
+        matchesJoin(p, innerScan(null), innerScan(null));
+    }
+
+    /**
+     * The predicates of filters over the inner scan, and of the scan itself,
+     * still apply.
+     */
+    @Test public void filteredInner() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 0);
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE / 100));
+        Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        matchesJoin(p, new Filter(filter, innerScan(ipred)), new Filter(filter, innerScan(ipred)));
+    }
+
+    /**
+     * The inner child is searched through the index; it is not opened,
+     * rewound or closed itself.
+     */
+    @Test public void innerNotRead() throws Exception {
+        SeqScan untouched = new SeqScan(tid, inner.getId(), "i") {
+            private static final long serialVersionUID = 1L;
+
+            @Override public void open() {
+                fail("inner child opened");
+            }
+
+            @Override public void rewind() {
+                fail("inner child rewound");
+            }
+
+            @Override public void close() {
+                fail("inner child closed");
+            }
+        };
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<ArrayList<Integer>> expected = rows(new Join(p, outerScan(), innerScan(null)));
+        IndexJoin join = new IndexJoin(p, outerScan(), untouched);
+        assertEquals(expected.size(), rows(join).size());
+        join.open();
+        join.rewind();
+        assertEquals(expected.isEmpty(), !join.hasNext());
+        join.close();
+    }
+
+    /**
+     * Only an index on the join field of the inner relation is searched.
+     */
+    @Test public void canProbe() throws Exception {
+        assertTrue(IndexJoin.canProbe(new JoinPredicate(1, Predicate.Op.EQUALS, 0), innerScan(null)));
+        assertFalse(IndexJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 1), innerScan(null)));
+        assertFalse(IndexJoin.canProbe(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), innerScan(null)));
+        assertTrue(IndexJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, inner.getId(), "i")));
+        assertFalse(IndexJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o")));
+    }
+
+    /**
+     * The optimizer joins a small table with an indexed one by searching the
+     * index.
+     */
+    @Test public void planned() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("idx", new TableStats(inner.getId(), 1000));
+        String outerName = Database.getCatalog().getTableName(outer.getId());
+        stats.put(outerName, new TableStats(outer.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        lp.addJoin("o.h0", "i.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(findIndexJoin(plan));
+        new QueryPlanVisualizer().getQueryPlanTree(plan);
+
+        ArrayList<ArrayList<Integer>> expected = rows(new Join(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0), outerScan(), innerScan(null)));
+        assertEquals(expected.size(), rows(plan).size());
+    }
+
+    /**
+     * A join on the key of the inner B+ tree is estimated to cost less as an
+     * IndexJoin than as a nested-loops join, and is instantiated as one; a
+     * join on another field of the inner table is neither.
+     */
+    @Test public void indexJoinCost() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+        TableStats outerStats = new TableStats(outer.getId(), 1000);
+        TableStats innerStats = new TableStats(inner.getId(), 1000);
+        double cost1 = outerStats.estimateScanCost();
+        double cost2 = innerStats.estimateScanCost();
+
+        LogicalJoinNode onKey = new LogicalJoinNode("o", "i", "h0", "c0", Predicate.Op.EQUALS);
+        double nestedLoops = jo.estimateJoinCost(onKey, OUTER_ROWS, INNER_ROWS, cost1, cost2);
+        assertTrue(jo.estimateJoinCost(onKey, OUTER_ROWS, INNER_ROWS, cost1, cost2, innerStats)
+                < nestedLoops);
+        assertTrue(JoinOptimizer.instantiateJoin(onKey, outerScan(), innerScan(null))
+                instanceof IndexJoin);
+
+        LogicalJoinNode offKey = new LogicalJoinNode("o", "i", "h0", "c1", Predicate.Op.EQUALS);
+        assertEquals(jo.estimateJoinCost(offKey, OUTER_ROWS, INNER_ROWS, cost1, cost2),
+                jo.estimateJoinCost(offKey, OUTER_ROWS, INNER_ROWS, cost1, cost2, innerStats), 0);
+        assertFalse(JoinOptimizer.instantiateJoin(offKey, outerScan(), innerScan(null))
+                instanceof IndexJoin);
+    }
+
+    private static boolean findIndexJoin(DbIterator plan) {
+        if (plan instanceof IndexJoin) return true;
+        if (!(plan instanceof Operator)) return false;
+        for (DbIterator child : ((Operator) plan).getChildren())
+            if (child != null && findIndexJoin(child)) return true;
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexJoinTest.class);
+    }
+}
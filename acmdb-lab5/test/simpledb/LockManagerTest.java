@@ -0,0 +1,263 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /** Acquire a lock on a new thread, recording the order of grants. */
+    private Thread acquire(final TransactionId tid, final Permissions perm, final List<TransactionId> order) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid, p0, perm);
+                    order.add(tid);
+                } catch (TransactionAbortedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /**
+     * Waiters are granted in the order they arrived.
+     */
+    @Test public void fifoGrant() throws Exception {
+        List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        Thread t2 = acquire(tid2, Permissions.READ_WRITE, order);
+        Thread.sleep(TIMEOUT);
+        Thread t3 = acquire(tid3, Permissions.READ_ONLY, order);
+        Thread.sleep(TIMEOUT);
+        assertTrue(order.isEmpty());
+
+        lm.releaseAll(tid1);
+        t2.join(TIMEOUT * 10);
+        assertEquals(1, order.size());
+        assertEquals(tid2, order.get(0));
+        assertTrue(lm.holdsExclusive(tid2, p0));
+
+        lm.releaseAll(tid2);
+        t3.join(TIMEOUT * 10);
+        assertEquals(tid3, order.get(1));
+        assertTrue(lm.holdsLock(tid3, p0));
+        assertFalse(lm.holdsExclusive(tid3, p0));
+    }
+
+    /**
+     * A shared holder upgrades ahead of queued requests once the other
+     * shared holders are gone.
+     */
+    @Test public void upgradeJumpsQueue() throws Exception {
+        List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        Thread t3 = acquire(tid3, Permissions.READ_WRITE, order);
+        Thread.sleep(TIMEOUT);
+        Thread t1 = acquire(tid1, Permissions.READ_WRITE, order);
+        Thread.sleep(TIMEOUT);
+        assertTrue(order.isEmpty());
+
+        lm.releaseAll(tid2);
+        t1.join(TIMEOUT * 10);
+        assertEquals(tid1, order.get(0));
+        assertTrue(lm.holdsExclusive(tid1, p0));
+
+        lm.releaseAll(tid1);
+        t3.join(TIMEOUT * 10);
+        assertEquals(tid3, order.get(1));
+    }
+
+    /**
+     * Set up a deadlock between tid1 (older) and tid2 (younger): each holds
+     * an exclusive lock on one page and then requests the other's page on a
+     * thread of its own.
+     *
+     * @return the transactions whose second request was aborted
+     */
+    private List<TransactionId> deadlock(final LockManager lm) throws Exception {
+        final PageId p1 = new HeapPageId(1, 1);
+        final List<TransactionId> aborted = Collections.synchronizedList(new ArrayList<TransactionId>());
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        Thread t1 = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid1, p1, Permissions.READ_WRITE);
+                } catch (TransactionAbortedException e) {
+                    aborted.add(tid1);
+                }
+                lm.releaseAll(tid1);
+            }
+        };
+        Thread t2 = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid2, p0, Permissions.READ_WRITE);
+                } catch (TransactionAbortedException e) {
+                    aborted.add(tid2);
+                }
+                lm.releaseAll(tid2);
+            }
+        };
+        t1.start();
+        Thread.sleep(TIMEOUT);
+        t2.start();
+        t1.join(TIMEOUT * 10);
+        t2.join(TIMEOUT * 10);
+        assertFalse(t1.isAlive());
+        assertFalse(t2.isAlive());
+        return aborted;
+    }
+
+    /**
+     * Detection when a request blocks aborts the requester by default.
+     */
+    @Test public void detectOnWait() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.DETECT_ON_WAIT,
+                LockManager.VictimSelection.REQUESTER, 0);
+        List<TransactionId> aborted = deadlock(lm);
+        assertEquals(Collections.singletonList(tid2), aborted);
+        assertEquals(1, lm.getDeadlockCount());
+        assertEquals(1, lm.getAbortCount());
+    }
+
+    /**
+     * The background detector aborts the youngest transaction of the cycle,
+     * even though the youngest did not close the cycle.
+     */
+    @Test public void backgroundYoungest() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.BACKGROUND,
+                LockManager.VictimSelection.YOUNGEST, 10);
+        TransactionId tmp = tid1;
+        tid1 = tid2;
+        tid2 = tmp;
+        List<TransactionId> aborted = deadlock(lm);
+        assertEquals(Collections.singletonList(tid1), aborted);
+        assertEquals(1, lm.getDeadlockCount());
+    }
+
+    /**
+     * Victim selection by number of locks held.
+     */
+    @Test public void fewestLocks() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.BACKGROUND,
+                LockManager.VictimSelection.FEWEST_LOCKS, 10);
+        lm.acquire(tid2, new HeapPageId(1, 2), Permissions.READ_ONLY);
+        lm.acquire(tid2, new HeapPageId(1, 3), Permissions.READ_ONLY);
+        List<TransactionId> aborted = deadlock(lm);
+        assertEquals(Collections.singletonList(tid1), aborted);
+    }
+
+    /**
+     * Wait-die: the younger requester dies instead of waiting for an older
+     * holder, so no cycle ever forms.
+     */
+    @Test public void waitDie() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.WAIT_DIE,
+                LockManager.VictimSelection.YOUNGEST, 0);
+        List<TransactionId> aborted = deadlock(lm);
+        assertEquals(Collections.singletonList(tid2), aborted);
+    }
+
+    /**
+     * Wound-wait: the older requester aborts the younger holder, which is
+     * blocked waiting for the older one.
+     */
+    @Test public void woundWait() throws Exception {
+        LockManager lm = new LockManager(LockManager.DeadlockPolicy.WOUND_WAIT,
+                LockManager.VictimSelection.YOUNGEST, 0);
+        TransactionId tmp = tid1;
+        tid1 = tid2;
+        tid2 = tmp;
+        List<TransactionId> aborted = deadlock(lm);
+        assertEquals(Collections.singletonList(tid1), aborted);
+    }
+
+    /**
+     * Requests of one transaction blocked at once on different threads each
+     * keep their waits-for edges, and all of them abort when the transaction
+     * is chosen as a victim.
+     */
+    @Test public void concurrentRequests() throws Exception {
+        final LockManager lm = new LockManager(LockManager.DeadlockPolicy.DETECT_ON_WAIT,
+                LockManager.VictimSelection.YOUNGEST, 0);
+        final PageId p1 = new HeapPageId(1, 1), p2 = new HeapPageId(1, 2), p3 = new HeapPageId(1, 3);
+        final List<PageId> aborted = Collections.synchronizedList(new ArrayList<PageId>());
+        // tid3, the youngest, waits for tid1 on one thread and for tid2 on another
+        lm.acquire(tid1, p1, Permissions.READ_WRITE);
+        lm.acquire(tid2, p2, Permissions.READ_WRITE);
+        lm.acquire(tid3, p3, Permissions.READ_WRITE);
+        Thread[] workers = new Thread[2];
+        PageId[] pids = {p2, p1};
+        for (int i = 0; i < 2; i++) {
+            final PageId pid = pids[i];
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        lm.acquire(tid3, pid, Permissions.READ_ONLY);
+                    } catch (TransactionAbortedException e) {
+                        aborted.add(pid);
+                    }
+                }
+            };
+            workers[i].start();
+            Thread.sleep(TIMEOUT);
+        }
+        // closes a cycle through the request that blocked first
+        Thread t2 = new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid2, p3, Permissions.READ_ONLY);
+                } catch (TransactionAbortedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t2.start();
+        for (Thread w : workers) {
+            w.join(TIMEOUT * 10);
+            assertFalse(w.isAlive());
+        }
+        assertEquals(2, aborted.size());
+        assertEquals(1, lm.getDeadlockCount());
+
+        lm.releaseAll(tid3);
+        t2.join(TIMEOUT * 10);
+        assertTrue(lm.holdsLock(tid2, p3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BTreeFile index;
+    private HashMap<String, TableStats> stats;
+
+    /**
+     * Create a B+ tree table "idx" keyed on its first field c0.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+        index = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(index, "idx");
+        stats = new HashMap<String, TableStats>();
+        stats.put("idx", new TableStats(index.getId(), 1000));
+    }
+
+    private DbIterator plan(TransactionId tid, Predicate.Op op, int value) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(index.getId(), "t");
+        lp.addFilter("t.c0", op, Integer.toString(value));
+        lp.addProjectField("*", null);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /** @return whether the plan reads a table through its index */
+    private static boolean usesIndex(DbIterator plan) {
+        if (plan instanceof BTreeScan) return true;
+        if (!(plan instanceof Operator)) return false;
+        for (DbIterator child : ((Operator) plan).getChildren())
+            if (child != null && usesIndex(child)) return true;
+        return false;
+    }
+
+    private int count(DbIterator plan) throws Exception {
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    private int expected(Predicate.Op op, int value) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (new IntField(t.get(0)).compare(op, new IntField(value))) n++;
+        return n;
+    }
+
+    /**
+     * Point and narrow range queries on the key field read the table through
+     * its index, and return the tuples the filter selects.
+     */
+    @Test public void selectiveFilterUsesIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        int value = tuples.get(0).get(0);
+        DbIterator p = plan(tid, Predicate.Op.EQUALS, value);
+        assertTrue(usesIndex(p));
+        assertEquals(expected(Predicate.Op.EQUALS, value), count(p));
+
+        p = plan(tid, Predicate.Op.LESS_THAN, MAX_VALUE / 100);
+        assertTrue(usesIndex(p));
+        assertEquals(expected(Predicate.Op.LESS_THAN, MAX_VALUE / 100), count(p));
+
+        p = plan(tid, Predicate.Op.GREATER_THAN_OR_EQ, MAX_VALUE - MAX_VALUE / 100);
+        assertTrue(usesIndex(p));
+        assertEquals(expected(Predicate.Op.GREATER_THAN_OR_EQ, MAX_VALUE - MAX_VALUE / 100), count(p));
+        new QueryPlanVisualizer().getQueryPlanTree(p);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A filter that selects most of the table, or one the index cannot
+     * search for, scans the table.
+     */
+    @Test public void unselectiveFilterScans() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertFalse(usesIndex(plan(tid, Predicate.Op.GREATER_THAN, MAX_VALUE / 100)));
+        assertFalse(usesIndex(plan(tid, Predicate.Op.NOT_EQUALS, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index scan is estimated like the filter it replaces would have been
+     * over a scan of the table.
+     */
+    @Test public void indexScanCardinality() throws Exception {
+        TransactionId tid = new TransactionId();
+        HashMap<String, Integer> aliasToId = new HashMap<String, Integer>();
+        aliasToId.put("t", index.getId());
+
+        DbIterator p = plan(tid, Predicate.Op.LESS_THAN, MAX_VALUE / 100);
+        assertTrue(usesIndex(p));
+        OperatorCardinality.updateOperatorCardinality((Operator) p, aliasToId, stats);
+
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 100)),
+                new SeqScan(tid, index.getId(), "t"));
+        OperatorCardinality.updateOperatorCardinality(f, aliasToId, stats);
+        assertTrue(f.getEstimatedCardinality() < ROWS / 10);
+        assertEquals(f.getEstimatedCardinality(), ((Operator) p).getEstimatedCardinality());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogicalPlanTest.class);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    /** Delete the first tuple of each of the given pages. */
+    private static void deleteFirstTuples(BufferPool bp, TransactionId tid, HeapFile hf, int... pages)
+            throws Exception {
+        for (int pgno : pages) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pgno), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, p.iterator().next());
+        }
+    }
+
+    private static int tuplesOnDisk(HeapFile hf, int pgno) throws DbException {
+        int n = 0;
+        Iterator<Tuple> it = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgno))).iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Committed pages are written back with one write per run of adjacent
+     * pages.
+     */
+    @Test public void adjacentPagesShareAWrite() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        deleteFirstTuples(bp, tid, hf, 0, 1, 2, 4);
+        bp.transactionComplete(tid);
+        bp.flushCommittedPages();
+
+        assertEquals(4, bp.getWriteBackCount());
+        assertEquals(2, bp.getWriteBackCallCount());
+        for (int pgno : new int[] {0, 1, 2, 4})
+            assertEquals(503, tuplesOnDisk(hf, pgno));
+        assertEquals(504, tuplesOnDisk(hf, 3));
+    }
+
+    /**
+     * A committed page that has not been written back can be evicted; it
+     * is written on the way out.
+     */
+    @Test public void evictionWritesCommittedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        deleteFirstTuples(bp, tid, hf, 0, 1);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 2; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertTrue(bp.getEvictionCount() >= 2);
+        assertEquals(503, tuplesOnDisk(hf, 0));
+        assertEquals(503, tuplesOnDisk(hf, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageIOTest extends SimpleDbTestBase {
+
+    private static final String[] KINDS = {"raf", "channel", "mmap"};
+
+    private static byte[] fill(int len, int value) {
+        byte[] b = new byte[len];
+        java.util.Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    /**
+     * Every kind reads back what was written, and reports the end of the
+     * file.
+     */
+    @Test public void readWrite() throws Exception {
+        for (String kind : KINDS) {
+            File f = File.createTempFile("pageio", ".dat");
+            f.deleteOnExit();
+            try (PageIO io = PageIO.open(f, kind)) {
+                io.write(0, fill(100, 1));
+                io.write(100, fill(100, 2));
+                assertEquals(kind, 200, io.length());
+
+                byte[] buf = new byte[100];
+                assertEquals(kind, 100, io.read(100, buf));
+                assertArrayEquals(kind, fill(100, 2), buf);
+                assertEquals(kind, 50, io.read(150, buf));
+                assertEquals(kind, -1, io.read(200, buf));
+            }
+        }
+    }
+
+    /**
+     * A mapped file sees pages appended after it was mapped, including by
+     * another writer.
+     */
+    @Test public void mappingFollowsGrowth() throws Exception {
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        try (PageIO io = PageIO.open(f, "mmap"); PageIO other = PageIO.open(f, "raf")) {
+            io.write(0, fill(64, 1));
+            byte[] buf = new byte[64];
+            assertEquals(64, io.read(0, buf));
+            other.write(64, fill(64, 3));
+            assertEquals(64, io.read(64, buf));
+            assertArrayEquals(fill(64, 3), buf);
+        }
+    }
+
+    /**
+     * A table scanned through each kind of I/O returns the same tuples.
+     */
+    @Test public void heapFileKinds() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile raf = SystemTestUtil.createRandomHeapFile(2, 1500, null, tuples);
+        for (String kind : KINDS) {
+            HeapFile hf = new HeapFile(raf.getFile(), raf.getTupleDesc(), kind);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertEquals(kind, raf.numPages(), hf.numPages());
+            SystemTestUtil.matchTuples(hf, tuples);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIOTest.class);
+    }
+}
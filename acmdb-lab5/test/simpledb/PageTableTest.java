@@ -0,0 +1,271 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    /** A HeapFile that counts its page reads and makes them slow. */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger(0);
+
+        CountingHeapFile(HeapFile hf) {
+            super(hf.getFile(), hf.getTupleDesc());
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws DbException {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private static CountingHeapFile countingFile(int pages) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        CountingHeapFile f = new CountingHeapFile(hf);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    /** Runs body on n threads that start together and returns their results. */
+    private static List<Object> runConcurrently(int n, final ThrowingFunction body) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(n);
+        final Object[] results = new Object[n];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    results[id] = body.apply(id);
+                } catch (Exception e) {
+                    results[id] = e;
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        List<Object> ret = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            threads.get(i).join();
+            if (results[i] instanceof Exception) throw (Exception) results[i];
+            ret.add(results[i]);
+        }
+        return ret;
+    }
+
+    private interface ThrowingFunction {
+        Object apply(int thread) throws Exception;
+    }
+
+    /**
+     * Concurrent readers of the same cold page share one disk read.
+     */
+    @Test public void singleFlightMiss() throws Exception {
+        final CountingHeapFile f = countingFile(1);
+        final BufferPool bp = Database.resetBufferPool(8);
+        final HeapPageId pid = new HeapPageId(f.getId(), 0);
+
+        List<Object> pages = runConcurrently(16, id -> {
+            TransactionId tid = new TransactionId();
+            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.transactionComplete(tid);
+            return p;
+        });
+
+        assertEquals(1, f.reads.get());
+        assertEquals(1, bp.getMissCount());
+        assertEquals(15, bp.getHitCount());
+        for (Object p : pages) assertSame(pages.get(0), p);
+    }
+
+    /**
+     * Concurrent misses on a small pool evict each other's pages and never
+     * hand out the wrong page.
+     */
+    @Test public void concurrentMissesWithEviction() throws Exception {
+        final CountingHeapFile f = countingFile(12);
+        final BufferPool bp = Database.resetBufferPool(4);
+
+        runConcurrently(8, id -> {
+            for (int i = 0; i < 24; i++) {
+                TransactionId tid = new TransactionId();
+                HeapPageId pid = new HeapPageId(f.getId(), (id + i * 5) % 12);
+                Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                assertEquals(pid, p.getId());
+                bp.transactionComplete(tid);
+            }
+            return null;
+        });
+
+        assertEquals(8 * 24, bp.getHitCount() + bp.getMissCount());
+        assertEquals(f.reads.get(), bp.getMissCount());
+    }
+
+    /**
+     * The pages an insert modifies are put back into the pool without
+     * growing it past its size, even if some of them were evicted while the
+     * insert ran.
+     */
+    @Test public void modifiedPagesStayWithinPool() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 502, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        // splits the only leaf, which modifies more pages than fit in the pool
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, f.getId(), BTreeUtility.getBTreeTuple(i, 2));
+            assertTrue(bp.getResidentCount() <= 3);
+        }
+        bp.transactionComplete(tid);
+        assertTrue(bp.getResidentCount() <= 3);
+    }
+
+    /**
+     * A pinned page stays resident while other pages are evicted around it.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        CountingHeapFile f = countingFile(4);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId p0 = new HeapPageId(f.getId(), 0);
+
+        Page pinned = bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        for (int i = 1; i < 4; i++)
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(p0));
+        assertSame(pinned, bp.getPage(tid, p0, Permissions.READ_ONLY));
+        assertEquals(4, f.reads.get());
+
+        bp.unpinPage(tid, p0);
+        assertEquals(0, bp.getPinCount(p0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pins a transaction forgets to release go away when it completes.
+     */
+    @Test public void pinsReleasedOnCommit() throws Exception {
+        CountingHeapFile f = countingFile(1);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId p0 = new HeapPageId(f.getId(), 0);
+        bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        bp.pinPage(tid, p0, Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(p0));
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinCount(p0));
+    }
+
+    /**
+     * A transaction that aborts while it still has a stolen page pinned
+     * releases the pin before the page is rolled back and dropped, and
+     * leaves no pin behind on the page read back afterwards.
+     */
+    @Test public void abortWithPinnedPage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId p0 = new HeapPageId(f.getId(), 0);
+        Transaction t = new Transaction();
+        t.start();
+        bp.pinPage(t.getId(), p0, Permissions.READ_WRITE);
+        bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(new int[]{-1, -1}));
+        bp.flushAllPages();
+        t.abort();
+        assertEquals(0, bp.getPinCount(p0));
+
+        TransactionId reader = new TransactionId();
+        HeapFilePage p = (HeapFilePage) bp.pinPage(reader, p0, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(p0));
+        int n = 0;
+        for (java.util.Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next()) n++;
+        assertEquals(10, n);
+        bp.transactionComplete(reader);
+        assertEquals(0, bp.getPinCount(p0));
+    }
+
+    /**
+     * Discarding a pinned page waits until it is unpinned.
+     */
+    @Test public void discardWaitsForPins() throws Exception {
+        CountingHeapFile f = countingFile(1);
+        final BufferPool bp = Database.resetBufferPool(2);
+        final HeapPageId p0 = new HeapPageId(f.getId(), 0);
+        TransactionId tid = new TransactionId();
+        bp.pinPage(tid, p0, Permissions.READ_ONLY);
+
+        Thread t = new Thread(() -> bp.discardPage(p0));
+        t.start();
+        Thread.sleep(100);
+        assertTrue(t.isAlive());
+        assertEquals(1, bp.getPinCount(p0));
+
+        bp.unpinPage(tid, p0);
+        t.join(1000);
+        assertFalse(t.isAlive());
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertEquals(2, f.reads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * An exclusive frame latch keeps out readers of the same page, even
+     * though both transactions hold a shared lock on it.
+     */
+    @Test public void exclusiveLatchBlocksReaders() throws Exception {
+        CountingHeapFile f = countingFile(1);
+        final BufferPool bp = Database.resetBufferPool(2);
+        final HeapPageId p0 = new HeapPageId(f.getId(), 0);
+        TransactionId writer = new TransactionId();
+        final TransactionId reader = new TransactionId();
+        bp.pinPage(writer, p0, Permissions.READ_ONLY);
+        bp.latchPage(p0, true);
+
+        final AtomicInteger stage = new AtomicInteger(0);
+        Thread t = new Thread(() -> {
+            try {
+                bp.pinPage(reader, p0, Permissions.READ_ONLY);
+                stage.set(1);
+                bp.latchPage(p0, false);
+                stage.set(2);
+                bp.unlatchPage(p0, false);
+                bp.transactionComplete(reader);
+            } catch (Exception e) {
+                stage.set(-1);
+            }
+        });
+        t.start();
+        while (stage.get() == 0) Thread.sleep(1);
+        Thread.sleep(50);
+        assertEquals(1, stage.get());
+
+        bp.unlatchPage(p0, true);
+        t.join();
+        assertEquals(2, stage.get());
+        bp.transactionComplete(writer);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() {
+        td = new TupleDesc(TYPES);
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    private PaxPage emptyPage() throws Exception {
+        return new PaxPage(pid, PaxPage.createEmptyPageData(), td);
+    }
+
+    private static HashSet<String> contents(HeapFilePage page) {
+        HashSet<String> set = new HashSet<String>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) set.add(it.next().toString());
+        return set;
+    }
+
+    /**
+     * A page holds as many tuples as a HeapPage, and they come back from the
+     * page and from a copy of its data.
+     */
+    @Test public void insertAndRead() throws Exception {
+        PaxPage page = emptyPage();
+        int slots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertEquals(slots, page.getFreeSpace());
+        HashSet<String> expected = new HashSet<String>();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = tuple(i);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().tupleno());
+            expected.add(t.toString());
+        }
+        assertEquals(0, page.getFreeSpace());
+        try {
+            page.insertTuple(tuple(slots));
+            throw new Exception("should have thrown DbException on a full page");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(expected, contents(page));
+        assertEquals(expected, contents(new PaxPage(pid, page.getPageData(), td)));
+    }
+
+    /**
+     * A deleted slot is empty and is the next one an insert takes.
+     */
+    @Test public void deleteTuple() throws Exception {
+        PaxPage page = emptyPage();
+        Tuple[] tuples = new Tuple[5];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = tuple(i);
+            page.insertTuple(tuples[i]);
+        }
+        page.deleteTuple(tuples[2]);
+        assertFalse(page.isSlotUsed(2));
+        assertEquals(4, contents(page).size());
+        Tuple t = tuple(9);
+        page.insertTuple(t);
+        assertEquals(2, t.getRecordId().tupleno());
+    }
+
+    /**
+     * Only the columns asked for are decoded.
+     */
+    @Test public void projectedIterator() throws Exception {
+        PaxPage page = emptyPage();
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i));
+        Iterator<Tuple> it = page.iterator(new boolean[]{false, false, true});
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(-t.getRecordId().tupleno()), t.getField(2));
+            n++;
+        }
+        assertEquals(10, n);
+    }
+
+    /**
+     * A table in the PAX format loaded from a catalog file stores its
+     * tuples in PaxPages; a scan told which columns are used returns them,
+     * under a filter and a projection.
+     */
+    @Test public void catalogFormat() throws Exception {
+        File dir = File.createTempFile("pax", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File txt = new File(dir, "wide.txt");
+        txt.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 2000; i++) w.write(i + ",s" + i + "," + (-i) + "\n");
+        w.close();
+        HeapFileEncoder.convertPax(txt, new File(dir, "wide.dat"), TYPES, ',');
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        w = new BufferedWriter(new FileWriter(schema));
+        w.write("wide (id int, name string, neg int) format=pax\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId("wide");
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        assertEquals(HeapFile.PAX, hf.getFormat());
+
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, tuple(2000));
+        SeqScan scan = new SeqScan(tid, tableid, "w");
+        scan.setColumns(new boolean[]{true, false, true});
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)), scan);
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        ArrayList<Type> types = new ArrayList<Type>();
+        types.add(Type.INT_TYPE);
+        Project project = new Project(fields, types, filter);
+        project.open();
+        long sum = 0;
+        int n = 0;
+        while (project.hasNext()) {
+            sum += ((IntField) project.next().getField(0)).getValue();
+            n++;
+        }
+        project.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1001, n);
+        assertEquals(-(1000L + 2000L) * 1001 / 2, sum);
+        Utility.delete(hf.getFile());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
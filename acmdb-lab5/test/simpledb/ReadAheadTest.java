@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** A heap file whose reads are slow and counted. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger(0);
+
+        SlowHeapFile(HeapFile hf) {
+            super(hf.getFile(), hf.getTupleDesc());
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws DbException {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private static SlowHeapFile slowFile(int pages) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        SlowHeapFile f = new SlowHeapFile(hf);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    /** Scan up to limit tuples of f, with a transaction of its own. */
+    private static int scan(DbFile f, int limit) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (count < limit && it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    @After public void clearProperty() {
+        System.clearProperty(ReadAhead.PROPERTY);
+    }
+
+    /**
+     * A scan through the pool reads pages ahead and then uses every one of
+     * them; no page is read twice.
+     */
+    @Test public void poolScan() throws Exception {
+        SlowHeapFile f = slowFile(20);
+        BufferPool bp = Database.resetBufferPool(50);
+        assertEquals(504 * 20, scan(f, Integer.MAX_VALUE));
+
+        assertEquals(20, f.reads.get());
+        assertEquals(20, bp.getMissCount() + bp.getPrefetchCount());
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertEquals(bp.getPrefetchCount(), bp.getPrefetchHitCount());
+        assertEquals(0, bp.getPrefetchWasteCount());
+    }
+
+    /**
+     * A scan of a large table reads ahead into its ring; every page read
+     * ahead is either used or counted as wasted.
+     */
+    @Test public void ringScan() throws Exception {
+        SlowHeapFile f = slowFile(40);
+        BufferPool bp = Database.resetBufferPool(16);
+        assertEquals(504 * 40, scan(f, Integer.MAX_VALUE));
+
+        assertEquals(40, f.reads.get());
+        assertEquals(40, bp.getBypassCount());
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertEquals(bp.getPrefetchCount(), bp.getPrefetchHitCount() + bp.getPrefetchWasteCount());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /**
+     * A scan that stops within its first pages reads nothing ahead, and
+     * nothing is read ahead when the property turns it off.
+     */
+    @Test public void onlySequentialRuns() throws Exception {
+        SlowHeapFile f = slowFile(10);
+        BufferPool bp = Database.resetBufferPool(50);
+        scan(f, 504 + 1);
+        assertEquals(0, bp.getPrefetchCount());
+
+        System.setProperty(ReadAhead.PROPERTY, "0");
+        bp = Database.resetBufferPool(50);
+        assertEquals(504 * 10, scan(f, Integer.MAX_VALUE));
+        assertEquals(0, bp.getPrefetchCount());
+    }
+
+    /**
+     * A B+ tree scan reads leaves ahead by following their right siblings.
+     */
+    @Test public void btreeScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BufferPool bp = Database.resetBufferPool(500);
+        assertEquals(20000, scan(bf, Integer.MAX_VALUE));
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertEquals(bp.getPrefetchCount(), bp.getPrefetchHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * CLOCK gives a second chance to pages referenced since the last sweep.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = new ClockPolicy();
+        for (int i = 0; i < 3; i++) p.pageAdmitted(pid(i));
+
+        // first sweep clears every bit and comes back around to page 0
+        assertEquals(pid(0), p.victim(x -> true));
+        p.pageRemoved(pid(0));
+
+        p.pageAccessed(pid(1));
+        p.pageAdmitted(pid(3));
+        assertEquals(pid(2), p.victim(x -> true));
+    }
+
+    /**
+     * CLOCK never returns pages the buffer pool says it cannot evict.
+     */
+    @Test public void clockSkipsUnevictable() {
+        ReplacementPolicy p = new ClockPolicy();
+        for (int i = 0; i < 3; i++) p.pageAdmitted(pid(i));
+        assertEquals(pid(2), p.victim(x -> x.equals(pid(2))));
+        assertNull(p.victim(x -> false));
+    }
+
+    /**
+     * LRU-2 evicts a page referenced once before a page referenced twice,
+     * even if the single reference is more recent.
+     */
+    @Test public void lruKPrefersCorrelatedPages() {
+        ReplacementPolicy p = new LruKPolicy(2);
+        p.pageAdmitted(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageAdmitted(pid(1));
+        p.pageAccessed(pid(1));
+        p.pageAdmitted(pid(2)); // one-shot scan page
+        assertEquals(pid(2), p.victim(x -> true));
+
+        p.pageRemoved(pid(2));
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(0));
+        // page 1's second-to-last reference is now older than page 0's
+        assertEquals(pid(1), p.victim(x -> true));
+        assertEquals(pid(0), p.victim(x -> !x.equals(pid(1))));
+    }
+
+    @Test public void forName() {
+        assertTrue(ReplacementPolicy.forName("clock") instanceof ClockPolicy);
+        assertEquals(2, ((LruKPolicy) ReplacementPolicy.forName("LRU-K")).getK());
+        assertEquals(3, ((LruKPolicy) ReplacementPolicy.forName("lru-3")).getK());
+    }
+
+    /**
+     * The buffer pool counts hits, misses and evictions.
+     */
+    @Test public void bufferPoolCounters() throws Exception {
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+        assertEquals(4, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+        assertEquals(2, bp.getEvictionCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
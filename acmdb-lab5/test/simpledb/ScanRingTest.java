@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    /**
+     * Small tables are scanned through the pool, large ones get a ring.
+     */
+    @Test public void threshold() {
+        BufferPool bp = Database.resetBufferPool(16);
+        assertNull(bp.getScanRing(16));
+        assertNotNull(bp.getScanRing(17));
+    }
+
+    /**
+     * The ring recycles its frames round-robin.
+     */
+    @Test public void ringRecycles() throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        ScanRing ring = new ScanRing(2);
+        HeapPageId p0 = new HeapPageId(-1, 0), p1 = new HeapPageId(-1, 1), p2 = new HeapPageId(-1, 2);
+        ring.put(new HeapPage(p0, HeapPage.createEmptyPageData()));
+        ring.put(new HeapPage(p1, HeapPage.createEmptyPageData()));
+        ring.put(new HeapPage(p2, HeapPage.createEmptyPageData()));
+        assertNull(ring.get(p0));
+        assertNotNull(ring.get(p1));
+        assertNotNull(ring.get(p2));
+    }
+
+    /**
+     * A full scan of a large table does not evict the pages already
+     * resident in the pool.
+     */
+    @Test public void scanDoesNotPolluteThePool() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+        TransactionId tid = new TransactionId();
+        HeapPageId hot = new HeapPageId(hf.getId(), 7);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 40, count);
+
+        assertEquals(1, bp.getMissCount());
+        assertEquals(39, bp.getBypassCount());
+        assertEquals(0, bp.getEvictionCount());
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(1, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,241 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 1000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private SecondaryIndex index;
+
+    /**
+     * Create a heap table with fields c0, c1 and c2, and an index on c1.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples, "c");
+        File f = File.createTempFile("index", ".idx");
+        f.delete();
+        Utility.deleteOnExit(f);
+        index = new SecondaryIndex(f, hf.getId(), 1);
+        Database.getCatalog().addIndex(index, SystemTestUtil.getUUID());
+        index.build();
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int value) {
+        ArrayList<ArrayList<Integer>> ret = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (new IntField(t.get(1)).compare(op, new IntField(value))) ret.add(t);
+        return ret;
+    }
+
+    private void lookup(Predicate.Op op, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(op, new IntField(value)));
+        SystemTestUtil.matchTuples(scan, matching(op, value));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index built from a table finds the tuples of each value, in order.
+     */
+    @Test public void build() throws Exception {
+        lookup(Predicate.Op.EQUALS, tuples.get(0).get(1));
+        lookup(Predicate.Op.LESS_THAN, MAX_VALUE / 10);
+        lookup(Predicate.Op.GREATER_THAN_OR_EQ, MAX_VALUE - MAX_VALUE / 10);
+
+        TransactionId tid = new TransactionId();
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t", null);
+        scan.open();
+        int n = 0, last = Integer.MIN_VALUE;
+        while (scan.hasNext()) {
+            int v = ((IntField) scan.next().getField(1)).getValue();
+            assertTrue(v >= last);
+            last = v;
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * Tuples inserted into and deleted from the table through the buffer
+     * pool are added to and removed from the index; those of a transaction
+     * that aborts are not.
+     */
+    @Test public void maintained() throws Exception {
+        int value = tuples.get(0).get(1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{-i, value, i});
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(-i);
+            row.add(value);
+            row.add(i);
+            tuples.add(row);
+        }
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        while (scan.hasNext() && deleted.size() < 10) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(1)).getValue() < MAX_VALUE / 10) deleted.add(t);
+        }
+        scan.close();
+        for (Tuple t : deleted) {
+            tuples.remove(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        lookup(Predicate.Op.EQUALS, value);
+        lookup(Predicate.Op.LESS_THAN, MAX_VALUE / 10);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[]{-1, value, -1}));
+        Database.getBufferPool().transactionComplete(tid, false);
+        lookup(Predicate.Op.EQUALS, value);
+    }
+
+    /**
+     * A field annotated with index in a catalog file gets an index, built
+     * from the table the first time it is loaded.
+     */
+    @Test public void catalogIndex() throws Exception {
+        File dir = File.createTempFile("index", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File txt = new File(dir, "people.txt");
+        txt.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 1000; i++) w.write(i + "," + (i % 50) + "\n");
+        w.close();
+        HeapFileEncoder.convert(txt, new File(dir, "people.dat"), BufferPool.getPageSize(), 2);
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        w = new BufferedWriter(new FileWriter(schema));
+        w.write("people (id int pk, age int index)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId("people");
+        assertEquals(1, Database.getCatalog().getIndexes(tableid).size());
+        File idx = new File(dir, "people.age.idx");
+        assertTrue(idx.length() > 0);
+
+        for (int load = 0; load < 2; load++) {
+            SecondaryIndex people = Database.getCatalog().getIndexes(tableid).get(0);
+            assertEquals(1, people.getField());
+            TransactionId tid = new TransactionId();
+            SecondaryIndexScan scan = new SecondaryIndexScan(tid, people, "p",
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(7)));
+            scan.open();
+            int n = 0;
+            while (scan.hasNext()) {
+                assertEquals(new IntField(7), scan.next().getField(1));
+                n++;
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(20, n);
+            // the second time the index file is opened, not built
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            tableid = Database.getCatalog().getTableId("people");
+        }
+        Utility.delete(new File(dir, "people.dat"));
+        Utility.delete(idx);
+    }
+
+    private HashMap<String, TableStats> stats() {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        String name = Database.getCatalog().getTableName(hf.getId());
+        stats.put(name, new TableStats(hf.getId(), 1000));
+        return stats;
+    }
+
+    private DbIterator plan(TransactionId tid, Predicate.Op op, int value) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c1", op, Integer.toString(value));
+        lp.addProjectField("*", null);
+        return lp.physicalPlan(tid, stats(), false);
+    }
+
+    private static boolean usesIndex(DbIterator plan) {
+        if (plan instanceof SecondaryIndexScan) return true;
+        if (!(plan instanceof Operator)) return false;
+        for (DbIterator child : ((Operator) plan).getChildren())
+            if (child != null && usesIndex(child)) return true;
+        return false;
+    }
+
+    /**
+     * The planner looks up a value of the indexed field through the index,
+     * and scans the table for a filter that selects most of it.
+     */
+    @Test public void planned() throws Exception {
+        TransactionId tid = new TransactionId();
+        int value = tuples.get(0).get(1);
+        DbIterator p = plan(tid, Predicate.Op.EQUALS, value);
+        assertTrue(usesIndex(p));
+        new QueryPlanVisualizer().getQueryPlanTree(p);
+        SystemTestUtil.matchTuples(p, matching(Predicate.Op.EQUALS, value));
+
+        assertFalse(usesIndex(plan(tid, Predicate.Op.GREATER_THAN, MAX_VALUE / 10)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A lookup through the index is estimated like the filter it replaces
+     * would have been over a scan of the table.
+     */
+    @Test public void indexScanCardinality() throws Exception {
+        TransactionId tid = new TransactionId();
+        HashMap<String, TableStats> stats = stats();
+        HashMap<String, Integer> aliasToId = new HashMap<String, Integer>();
+        aliasToId.put("t", hf.getId());
+
+        int value = tuples.get(0).get(1);
+        DbIterator p = plan(tid, Predicate.Op.EQUALS, value);
+        assertTrue(usesIndex(p));
+        OperatorCardinality.updateOperatorCardinality((Operator) p, aliasToId, stats);
+
+        Filter f = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(value)),
+                new SeqScan(tid, hf.getId(), "t"));
+        OperatorCardinality.updateOperatorCardinality(f, aliasToId, stats);
+        assertTrue(f.getEstimatedCardinality() < ROWS / 10);
+        assertEquals(f.getEstimatedCardinality(), ((Operator) p).getEstimatedCardinality());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
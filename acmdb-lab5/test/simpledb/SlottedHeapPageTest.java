@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() {
+        td = new TupleDesc(TYPES);
+        pid = new HeapPageId(-1, 0);
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData(), td);
+    }
+
+    private static HashSet<String> contents(HeapFilePage page) {
+        HashSet<String> set = new HashSet<String>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) set.add(it.next().toString());
+        return set;
+    }
+
+    /**
+     * Tuples inserted come back from the page and from a copy of its data.
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        HashSet<String> expected = new HashSet<String>();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = tuple(i, "s" + i);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().tupleno());
+            expected.add(t.toString());
+        }
+        assertEquals(expected, contents(page));
+        assertEquals(expected, contents(new SlottedHeapPage(pid, page.getPageData(), td)));
+    }
+
+    /**
+     * Short strings take less room than the fixed-width format gives them.
+     */
+    @Test public void variableLength() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int n = 0;
+        while (SlottedHeapPage.spaceFor(tuple(n, "ab")) <= page.getFreeSpace())
+            page.insertTuple(tuple(n++, "ab"));
+        int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n + " tuples", n > 3 * fixed);
+        try {
+            page.insertTuple(tuple(n, "ab"));
+            throw new Exception("should have thrown DbException on a full page");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Deleting a tuple compacts the records and gives its space back; the
+     * other tuples keep their slots, and a freed slot is reused.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int free = page.getFreeSpace();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 5; i++) {
+            Tuple t = tuple(i, "value" + i);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        Tuple mid = tuples.remove(2);
+        int before = page.getFreeSpace();
+        page.deleteTuple(mid);
+        assertEquals(before + SlottedHeapPage.spaceFor(mid) - 4, page.getFreeSpace());
+        assertFalse(page.isSlotUsed(2));
+
+        HashSet<String> expected = new HashSet<String>();
+        for (Tuple t : tuples) expected.add(t.toString());
+        assertEquals(expected, contents(page));
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            assertEquals(t.getField(0).toString(), String.valueOf(t.getRecordId().tupleno()));
+        }
+
+        Tuple t = tuple(7, "a much longer value than before");
+        page.insertTuple(t);
+        assertEquals(2, t.getRecordId().tupleno());
+
+        page.deleteTuple(t);
+        for (Tuple u : tuples) page.deleteTuple(u);
+        assertEquals(free, page.getFreeSpace());
+        assertEquals(0, contents(page).size());
+    }
+
+    /**
+     * A table in the slotted format loaded from a catalog file stores its
+     * tuples in SlottedHeapPages, and takes fewer pages for short strings.
+     */
+    @Test public void catalogFormat() throws Exception {
+        File dir = File.createTempFile("slotted", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File txt = new File(dir, "words.txt");
+        txt.deleteOnExit();
+        BufferedWriter w = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < 2000; i++) w.write(i + ",w" + i + "\n");
+        w.close();
+        HeapFileEncoder.convertSlotted(txt, new File(dir, "words.dat"), TYPES, ',');
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        w = new BufferedWriter(new FileWriter(schema));
+        w.write("words (id int, word string) format=slotted\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("words"));
+        assertEquals(HeapFile.SLOTTED, hf.getFormat());
+        int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(hf.numPages() < 2000 / fixed);
+
+        TransactionId tid = new TransactionId();
+        hf.insertTuple(tid, tuple(2000, "w2000"));
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("w" + t.getField(0), ((StringField) t.getField(1)).getValue());
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2001, n);
+        Utility.delete(hf.getFile());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
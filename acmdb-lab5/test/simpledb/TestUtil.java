@@ -379,7 +379,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            Utility.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -71,7 +71,7 @@ public class BTreeScanTest extends SimpleDbTestBase {
         }
 
         @Override
-        public Page readPage(PageId pid) throws NoSuchElementException {
+        public Page readPage(PageId pid) throws NoSuchElementException, DbException {
             readCount += 1;
             return super.readPage(pid);
         }
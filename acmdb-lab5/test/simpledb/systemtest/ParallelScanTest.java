@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    static {
+        // several workers per scan, even on a single processor
+        if (System.getProperty(ParallelSeqScan.THREADS_PROPERTY) == null)
+            System.setProperty(ParallelSeqScan.THREADS_PROPERTY, "4");
+    }
+
+    /**
+     * Check that a scan returns the given tuples in any order; unlike
+     * SystemTestUtil.matchTuples this stays fast when the order differs.
+     */
+    private static void matchTuples(DbIterator scan, List<ArrayList<Integer>> tuples) throws Exception {
+        Comparator<List<Integer>> byFields = (a, b) -> {
+            for (int i = 0; i < a.size(); i++) {
+                int c = Integer.compare(a.get(i), b.get(i));
+                if (c != 0) return c;
+            }
+            return 0;
+        };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext())
+            actual.add(SystemTestUtil.tupleToList(scan.next()));
+        scan.close();
+        expected.sort(byFields);
+        actual.sort(byFields);
+        assertEquals(expected, actual);
+    }
+
+    /** Tables of a few pages and tables larger than the pool scan alike. */
+    @Test public void matchesSeqScan() throws Exception {
+        for (int rows : new int[]{0, 1, 1000, 504 * 80 + 7}) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+            TransactionId tid = new TransactionId();
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t");
+            matchTuples(scan, tuples);
+            Database.getBufferPool().transactionComplete(tid);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /** Only tuples that pass every pushed-down filter are returned. */
+    @Test public void filters() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) > 30 && t.get(1) <= 60) expected.add(t);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t",
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(60)));
+        matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Closing a scan that is not finished stops its threads: they take no
+     * more locks, so the transaction can complete.
+     */
+    @Test public void closeEarly() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t");
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scan.hasNext());
+            scan.next();
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < f.numPages(); i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(f.getId(), i)));
+
+        // rewinding starts over
+        tid = new TransactionId();
+        scan = new ParallelSeqScan(tid, f.getId(), "t");
+        scan.open();
+        scan.next();
+        scan.rewind();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        assertEquals(504 * 40, n);
+        try {
+            scan.next();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A table that is not a HeapFile is scanned through its iterator. */
+    @Test public void otherFiles() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 5000, new HashMap<Integer, Integer>(), tuples, 0);
+        TransactionId tid = new TransactionId();
+        matchTuples(new ParallelSeqScan(tid, f.getId(), "t"), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Runs a scan to the end on a thread of its own, then closes it. */
+    private static class ScanThread extends Thread {
+        final ParallelSeqScan scan;
+        volatile int count = 0;
+        volatile Exception failure = null;
+
+        ScanThread(TransactionId tid, HeapFile f) {
+            scan = new ParallelSeqScan(tid, f.getId(), "t");
+            start();
+        }
+
+        public void run() {
+            try {
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                    count++;
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                scan.close();
+            }
+        }
+    }
+
+    /** Lock every page of a table exclusively for a writer. */
+    private static void lockAll(TransactionId writer, HeapFile f) throws Exception {
+        for (int i = 0; i < f.numPages(); i++)
+            Database.getBufferPool().getPage(writer, new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+    }
+
+    /**
+     * The workers of a scan that block behind a writer at once all go on
+     * when it commits.
+     */
+    @Test public void blockedBehindWriter() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 16, null, null);
+        TransactionId writer = new TransactionId();
+        lockAll(writer, f);
+        TransactionId tid = new TransactionId();
+        ScanThread t = new ScanThread(tid, f);
+        Thread.sleep(200);
+        assertTrue(t.isAlive());
+
+        Database.getBufferPool().transactionComplete(writer);
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertNull(t.failure);
+        assertEquals(504 * 16, t.count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A deadlock between a writer and the blocked workers of a scan is
+     * found, and when the scan's transaction is the victim all its workers
+     * abort, so the scan can be closed.
+     */
+    @Test public void deadlockWithWriter() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 16, null, null);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        final HeapPageId p = new HeapPageId(other.getId(), 0);
+        final TransactionId writer = new TransactionId();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, p, Permissions.READ_ONLY);
+        lockAll(writer, f);
+        ScanThread t = new ScanThread(tid, f);
+        Thread.sleep(200);
+        Thread w = new Thread() {
+            public void run() {
+                try {
+                    Database.getBufferPool().getPage(writer, p, Permissions.READ_WRITE);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        w.start();
+
+        // the scan's transaction is the younger, so it is the victim
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertTrue(t.failure instanceof TransactionAbortedException);
+        Database.getBufferPool().transactionComplete(tid, false);
+        w.join(10000);
+        assertTrue(Database.getBufferPool().holdsLock(writer, p));
+        Database.getBufferPool().transactionComplete(writer);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,281 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests for the STEAL/NO-FORCE buffer pool and the log based rollback and
+ * recovery that it relies on.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private static void insert(HeapFile f, Transaction t, int a, int b) throws Exception {
+        Tuple value = new Tuple(Utility.getTupleDesc(2));
+        value.setField(0, new IntField(a));
+        value.setField(1, new IntField(b));
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), Arrays.asList(value)), f.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
+    private static boolean contains(HeapFile f, int a, int b) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        boolean found = false;
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple v = ss.next();
+            if (((IntField) v.getField(0)).getValue() == a && ((IntField) v.getField(1)).getValue() == b)
+                found = true;
+        }
+        ss.close();
+        t.commit();
+        return found;
+    }
+
+    /** Throw away the buffer pool, as a crash would, and recover from the log. */
+    private static HeapFile crashAndRecover(HeapFile f) throws Exception {
+        File file = f.getFile();
+        Database.reset();
+        HeapFile reopened = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+        return reopened;
+    }
+
+    /**
+     * An aborted transaction whose dirty page was evicted to disk is rolled
+     * back from the log.
+     */
+    @Test public void abortRollsBackStolenPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        Database.resetBufferPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        insert(f, t, -42, -43);
+        for (int i = 0; i < f.numPages(); i++)
+            Database.getBufferPool().getPage(t.getId(), new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        t.abort();
+
+        Database.resetBufferPool(2);
+        assertFalse(contains(f, -42, -43));
+    }
+
+    /** Wait until a thread blocks on a monitor. */
+    private static void awaitBlocked(Thread t) throws InterruptedException {
+        while (t.getState() != Thread.State.BLOCKED) {
+            assertTrue(t.isAlive());
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * A transaction aborts while another thread evicts a page the
+     * transaction changed again after it was stolen, and the eviction is
+     * waiting to log the page. The rollback waits for the eviction to
+     * finish instead of holding the log monitor the eviction needs, and
+     * the page is rolled back. Which of the two gets the log monitor first
+     * is up to the JVM, so this is tried a few times.
+     */
+    @Test public void abortDuringEviction() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            // the second page has room for the inserts
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 + 10, null, null);
+            HeapFile g = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+            BufferPool bp = Database.resetBufferPool(1);
+            HeapPageId other = new HeapPageId(g.getId(), 0);
+            Transaction t = new Transaction();
+            t.start();
+            insert(f, t, -42, -43);
+            // steals the changed page, and then changes it again
+            bp.getPage(t.getId(), other, Permissions.READ_ONLY);
+            insert(f, t, -44, -45);
+
+            Thread evictor = new Thread(() -> {
+                try {
+                    TransactionId reader = new TransactionId();
+                    bp.getPage(reader, other, Permissions.READ_ONLY);
+                    bp.transactionComplete(reader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread aborter = new Thread(() -> {
+                try {
+                    t.abort();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            evictor.setDaemon(true);
+            aborter.setDaemon(true);
+            synchronized (Database.getLogFile()) {
+                evictor.start();
+                awaitBlocked(evictor);
+                aborter.start();
+                awaitBlocked(aborter);
+            }
+            evictor.join(10000);
+            aborter.join(10000);
+            assertFalse(evictor.isAlive());
+            assertFalse(aborter.isAlive());
+
+            Database.resetBufferPool(2);
+            assertFalse(contains(f, -42, -43));
+            assertFalse(contains(f, -44, -45));
+        }
+    }
+
+    /**
+     * A transaction may change more pages than the buffer pool holds.
+     */
+    @Test public void transactionLargerThanPool() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        Database.resetBufferPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < f.numPages(); i++) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                    new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+            Database.getBufferPool().deleteTuple(t.getId(), p.iterator().next());
+        }
+        t.commit();
+
+        Database.resetBufferPool(2);
+        Transaction count = new Transaction();
+        count.start();
+        DbFileIterator it = f.iterator(count.getId());
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        count.commit();
+        assertEquals(504 * 6 - 6, n);
+    }
+
+    /**
+     * After a crash, the changes of committed transactions are redone and
+     * those of unfinished transactions that reached disk are undone.
+     */
+    @Test public void recoverRedoesWinnersAndUndoesLosers() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 4, null, null);
+        Transaction winner = new Transaction();
+        winner.start();
+        insert(f, winner, -1, -2);
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(f, loser, -3, -4);
+        Database.getBufferPool().flushAllPages();
+
+        f = crashAndRecover(f);
+        assertTrue(contains(f, -1, -2));
+        assertFalse(contains(f, -3, -4));
+    }
+
+    /**
+     * Recovery repeats the rollback of a transaction that aborted before the
+     * crash without undoing later committed changes to the same page.
+     */
+    @Test public void recoverRepeatsRollbacks() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Transaction aborted = new Transaction();
+        aborted.start();
+        insert(f, aborted, -5, -6);
+        Database.getBufferPool().flushAllPages();
+        aborted.abort();
+
+        Transaction winner = new Transaction();
+        winner.start();
+        insert(f, winner, -7, -8);
+        winner.commit();
+
+        f = crashAndRecover(f);
+        assertFalse(contains(f, -5, -6));
+        assertTrue(contains(f, -7, -8));
+    }
+
+    /**
+     * Written pages carry the LSN of their last update, and writing a
+     * committed page does not force the log again.
+     */
+    @Test public void committedPagesDoNotForceTheLog() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        insert(f, t, -9, -10);
+        t.commit();
+
+        LogFile log = Database.getLogFile();
+        long forces = log.getForceCount();
+        Database.getBufferPool().flushCommittedPages();
+        assertEquals(forces, log.getForceCount());
+
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        long lsn = f.getPageLSN(pid);
+        assertTrue(lsn > 0);
+        assertTrue(lsn <= log.getDurableLsn());
+        assertEquals(lsn, f.readPage(pid).getLSN());
+    }
+
+    /**
+     * Recovery does not redo an update to a page whose LSN on disk shows it
+     * is already newer.
+     */
+    @Test public void recoverSkipsNewerPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        insert(f, t, -11, -12);
+        t.commit();
+        Database.getBufferPool().flushCommittedPages();
+
+        // a later version of the page without the tuple reached disk
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage later = new HeapPage(pid, HeapPage.createEmptyPageData());
+        later.setLSN(Database.getLogFile().getEndLsn());
+        f.writePage(later);
+
+        f = crashAndRecover(f);
+        assertFalse(contains(f, -11, -12));
+    }
+
+    /**
+     * LSNs keep growing when the log is truncated and when it is started
+     * over.
+     */
+    @Test public void lsnsSurviveTruncation() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        insert(f, t, -13, -14);
+        t.commit();
+        long lsn = Database.getLogFile().getEndLsn();
+
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getLogFile().getEndLsn() > lsn);
+        lsn = Database.getLogFile().getEndLsn();
+
+        Database.reset();
+        Database.getLogFile().logXactionBegin(new TransactionId());
+        assertTrue(Database.getLogFile().getEndLsn() > lsn);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -78,7 +78,7 @@ public class ScanTest extends SimpleDbTestBase {
             }
 
             @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
+            public Page readPage(PageId pid) throws NoSuchElementException, DbException {
                 readCount += 1;
                 return super.readPage(pid);
             }